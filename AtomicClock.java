@@ -0,0 +1,365 @@
+package cs671;
+
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Lock-free binary clocks of at most 64 bits.  The whole value of
+ * the clock fits in a single {@code long}, which is kept in an
+ * {@code AtomicLong}.  Queries are plain volatile reads and never
+ * block; state changes are compare-and-set loops on that single
+ * word.  Apart from the size limit, these clocks behave exactly like
+ * {@link Clock}.
+ *
+ * <p> The clock direction is still changed under the clock
+ * {@link Clock#lock lock}, but it is read without it, so a step
+ * uses whichever direction was current when the step started.
+ * Whether the clock has observers is also read without locking (see
+ * {@link Clock#countObservers}), so a step with no observers never
+ * takes a monitor.
+ *
+ * @see Clock
+ */
+public class AtomicClock extends Clock {
+
+  /** Value of the clock; bits beyond {@code size()} are always zero */
+  private final AtomicLong value = new AtomicLong();
+  /** Mask of the valid bits of {@code value} */
+  private final long mask;
+
+  /** Constructs a passive lock-free clock with <code>nbBits</code>
+   * bits.  Initially, all bits are off (false).
+   *
+   * @param nbBits the number of bits of this clock
+   * @throws IllegalArgumentException if <code>nbBits &lt; 1</code> or
+   * <code>nbBits &gt; 64</code>
+   * @see Clock#Clock(int)
+   */
+  public AtomicClock (int nbBits) {
+    super(checkSize(nbBits));
+    mask = BitWords.lastMask(nbBits);
+  }
+
+  /** Constructs an active lock-free clock with <code>nbBits</code>
+   * bits, driven by a new timer of the specified class.
+   *
+   * @param nbBits the number of bits of this clock
+   * @param timerClass the name of a timer-implementing class
+   * @throws IllegalArgumentException if <code>nbBits &lt; 1</code>,
+   * <code>nbBits &gt; 64</code> or if the timer cannot be created
+   * @see Clock#Clock(int, String)
+   */
+  public AtomicClock (int nbBits, String timerClass) {
+    super(checkSize(nbBits), timerClass);
+    mask = BitWords.lastMask(nbBits);
+  }
+
+  /** Constructs an active lock-free clock with <code>nbBits</code>
+   * bits and the given tick period, driven by a new timer of the
+   * specified class.
+   *
+   * @param nbBits the number of bits of this clock
+   * @param timerClass the name of a timer-implementing class
+   * @param period the tick period, in milliseconds
+   * @throws IllegalArgumentException if <code>nbBits &lt; 1</code>,
+   * <code>nbBits &gt; 64</code>, if the period is not positive or if
+   * the timer cannot be created
+   * @see Clock#Clock(int, String, long)
+   */
+  public AtomicClock (int nbBits, String timerClass, long period) {
+    super(checkSize(nbBits), timerClass, period);
+    mask = BitWords.lastMask(nbBits);
+  }
+
+  /** Constructs an active lock-free clock with <code>nbBits</code>
+   * bits, driven by the given timer.
+   *
+   * @param nbBits the number of bits of this clock
+   * @param t a timer
+   * @throws IllegalArgumentException if <code>nbBits &lt; 1</code>,
+   * <code>nbBits &gt; 64</code> or if timer {@code t} is running
+   * @see Clock#Clock(int, ClockTimer)
+   */
+  public AtomicClock (int nbBits, ClockTimer t) {
+    super(checkSize(nbBits), t);
+    mask = BitWords.lastMask(nbBits);
+  }
+
+  /** Constructs an active lock-free clock with <code>nbBits</code>
+   * bits and the given tick period, driven by the given timer.
+   *
+   * @param nbBits the number of bits of this clock
+   * @param t a timer
+   * @param period the tick period, in milliseconds
+   * @throws IllegalArgumentException if <code>nbBits &lt; 1</code>,
+   * <code>nbBits &gt; 64</code>, if the period is not positive or if
+   * timer {@code t} is running
+   * @see Clock#Clock(int, ClockTimer, long)
+   */
+  public AtomicClock (int nbBits, ClockTimer t, long period) {
+    super(checkSize(nbBits), t, period);
+    mask = BitWords.lastMask(nbBits);
+  }
+
+  private static int checkSize (int nbBits) {
+    if(nbBits > 64) {
+        throw new IllegalArgumentException("AtomicClock cannot have more than 64 bits");
+    }
+    return nbBits;
+  }
+
+  private void checkIndex (int n) {
+    if((n < 0) || (n > (size()-1))) { throw new IndexOutOfBoundsException("No such bit (" + n + ") exists"); }
+  }
+
+  @Override
+  ClockEvent valueEvent () {
+    if(countObservers() == 0) { return null; }
+    return new ClockEvent(this, 0L, new long[] { value.get() });
+  }
+
+  @Override
+  ClockEvent baseline () {
+    return new ClockEvent(this, 0L, new long[] { value.get() });
+  }
+
+  /** Orders an event after the last one delivered.  Changes are not
+   * numbered, since they are made without a lock, so the event is
+   * replaced with one that reports the current value and, as changed
+   * bits, those that differ from the last value delivered.
+   */
+  @Override
+  ClockEvent inOrder (ClockEvent e, ClockEvent last) {
+    long before = (last != null) ? last.value()[0] : e.before()[0];
+    long after = value.get();
+    return new ClockEvent(this, 0L, new long[] { after }, 0, new long[] { before ^ after });
+  }
+
+  @Override
+  public void clear () {
+    long prev = value.getAndSet(0L);
+    if(prev != 0L || isTicking()) {
+        updateObs(wordEvent(prev, 0L));
+    }
+  }
+
+  @Override
+  public boolean getBit (int n) {
+    checkIndex(n);
+    return (value.get() & (1L << n)) != 0L;
+  }
+
+  @Override
+  public boolean setBit (int n) {
+    checkIndex(n);
+    long bit = 1L << n;
+    long prev;
+    do {
+        prev = value.get();
+        if((prev & bit) != 0L) { return true; }
+    } while(!value.compareAndSet(prev, prev | bit));
+    updateObs(wordEvent(prev, prev | bit));
+    return false;
+  }
+
+  @Override
+  public boolean clearBit (int n) {
+    checkIndex(n);
+    long bit = 1L << n;
+    long prev;
+    do {
+        prev = value.get();
+        if((prev & bit) == 0L) { return false; }
+    } while(!value.compareAndSet(prev, prev & ~bit));
+    updateObs(wordEvent(prev, prev & ~bit));
+    return true;
+  }
+
+  @Override
+  public boolean nextBit (int n) {
+    checkIndex(n);
+    long bit = 1L << n;
+    long prev;
+    do {
+        prev = value.get();
+    } while(!value.compareAndSet(prev, prev ^ bit));
+    updateObs(wordEvent(prev, prev ^ bit));
+    return (prev & bit) != 0L;
+  }
+
+  /** Steps the clock with a single compare-and-set.  The value wraps
+   * around in both directions.
+   *
+   * @see Clock#step
+   */
+  @Override
+  public void step () {
+    long prev, next;
+    do {
+        prev = value.get();
+        if(getDirection() == Direction.FORWARD) {
+            next = (prev + 1L) & mask;
+        }
+        else {
+            next = (prev - 1L) & mask;
+        }
+    } while(!value.compareAndSet(prev, next));
+    updateObs(wordEvent(prev, next));
+  }
+
+  /** Automatic update.  There is no lock to wait for, so only the
+   * time of the step is recorded.
+   */
+  @Override
+  void tick () {
+    long t0 = System.nanoTime();
+    step();
+    ClockMetrics.INSTANCE.tick(System.nanoTime() - t0, 0L);
+  }
+
+  /** Advances the clock by {@code n} steps with a single
+   * compare-and-set.
+   *
+   * @see Clock#advance(long)
+   */
+  @Override
+  public void advance (long n) {
+    if((n & mask) == 0L) { return; }
+    long prev, next;
+    do {
+        prev = value.get();
+        if(getDirection() == Direction.FORWARD) {
+            next = (prev + n) & mask;
+        }
+        else {
+            next = (prev - n) & mask;
+        }
+    } while(!value.compareAndSet(prev, next));
+    updateObs(wordEvent(prev, next));
+  }
+
+  /** Advances the clock by an arbitrary number of steps.  Only the
+   * low 64 bits of {@code n} matter for a clock of at most 64 bits.
+   *
+   * @see Clock#advance(BigInteger)
+   */
+  @Override
+  public void advance (BigInteger n) {
+    advance(n.longValue());
+  }
+
+  @Override
+  public void setValue (boolean[] v) {
+    if(v.length != size()) {
+        throw new IllegalArgumentException("Size of array is differnt from the"
+               + " number of bits int the clock"); }
+    long word = 0L;
+    for(int i = 0; i < v.length; i++) {
+        if(v[i]) { word |= 1L << i; }
+    }
+    long prev = value.getAndSet(word);
+    if(prev != word) {
+        updateObs(wordEvent(prev, word));
+    }
+  }
+
+  @Override
+  public void setLongValue (long v) {
+    if(size() < 63 && v > mask) { throw new IndexOutOfBoundsException("Value is " +
+                            "beyond clock capacity"); }
+    long prev = value.getAndSet(v & mask);
+    if(prev != (v & mask)) {
+        updateObs(wordEvent(prev, v & mask));
+    }
+  }
+
+  @Override
+  public boolean[] getValue () {
+    boolean[] ret = new boolean[size()];
+    for(long word = value.get(); word != 0L; word &= word - 1) {
+        ret[Long.numberOfTrailingZeros(word)] = true;
+    }
+    return ret;
+  }
+
+  /** All bit values, as a long.  Since the clock has at most 64 bits,
+   * this method never throws.
+   * @return boolean value for each bit
+   */
+  @Override
+  public long getLongValue () {
+    return value.get();
+  }
+
+  /** A copy of the clock state.  The value is read atomically, but
+   * not together with the direction.
+   *
+   * @see Clock#snapshot
+   */
+  @Override
+  public ClockSnapshot snapshot () {
+    return new ClockSnapshot(size(), new long[] { value.get() }, getDirection(), isTicking());
+  }
+
+  @Override
+  void xorWords (int from, long[] mask, int off, int len) {
+    if(from < 0 || len < 0 || from + len > 1) { throw new IndexOutOfBoundsException("Mask is beyond clock capacity"); }
+    if(len == 0) { return; }
+    long x = mask[off] & this.mask;
+    if(x == 0L) { return; }
+    long prev;
+    do {
+        prev = value.get();
+    } while(!value.compareAndSet(prev, prev ^ x));
+    updateObs(wordEvent(prev, prev ^ x));
+  }
+
+  /** Copies the value with a single read.
+   * @see Clock#getBits
+   */
+  @Override
+  public int getBits (long[] dest) {
+    if(dest.length < 1) { throw new IllegalArgumentException("Array is too short"); }
+    dest[0] = value.get();
+    return 1;
+  }
+
+  /** Sets the value with a single atomic exchange.
+   * @see Clock#setBits
+   */
+  @Override
+  public void setBits (long[] src) {
+    if(src.length < 1) { throw new IllegalArgumentException("Array is too short"); }
+    if((src[0] & ~mask) != 0L) { throw new IndexOutOfBoundsException("Value is " +
+                            "beyond clock capacity"); }
+    long prev = value.getAndSet(src[0]);
+    if(prev != src[0]) {
+        updateObs(wordEvent(prev, src[0]));
+    }
+  }
+
+  /** Writes the value with a single read.
+   * @see Clock#writeTo
+   */
+  @Override
+  public void writeTo (ByteBuffer b) {
+    b.putLong(value.get());
+  }
+
+  /** Sets the value with a single atomic exchange.
+   * @see Clock#readFrom
+   */
+  @Override
+  public void readFrom (ByteBuffer b) {
+    if(b.remaining() < 8) { throw new BufferUnderflowException(); }
+    long word = b.getLong(b.position());
+    if((word & ~mask) != 0L) { throw new IndexOutOfBoundsException("Value is " +
+                            "beyond clock capacity"); }
+    b.position(b.position() + 8);
+    long prev = value.getAndSet(word);
+    if(prev != word) {
+        updateObs(wordEvent(prev, word));
+    }
+  }
+}
@@ -0,0 +1,104 @@
+package cs671;
+
+/** The state of a binary clock and the operations that change it by
+ * hand.  This is the part of the {@link Clock} API that does not
+ * involve timers or observers, so it is also implemented by clocks
+ * that are not {@code Clock} objects, like the clocks of a {@link
+ * ClockFleet}.  Every method has the meaning documented in {@code
+ * Clock}.  Components that observe a clock or start and stop it, like
+ * {@link GraphicsClock}, still need a {@code Clock}.
+ *
+ * @see Clock
+ * @see ClockFleet.View
+ */
+public interface BinaryClock {
+
+  /** Clock size
+   * @return the number of bits in the clock
+   */
+  public int size ();
+
+  /** The status of the clock.
+   * @return true iff the clock is currently running
+   */
+  public boolean isTicking ();
+
+  /** Resets the clock.  All bits are set to zero. */
+  public void clear ();
+
+  /** The value of bit number <code>n</code>.
+   * @param n the bit number
+   * @return the value of the bit
+   * @throws IndexOutOfBoundsException if no such bit exists
+   */
+  public boolean getBit (int n);
+
+  /** Sets bit number <code>n</code> to true.
+   * @param n the bit number
+   * @return the previous value of the bit
+   * @throws IndexOutOfBoundsException if no such bit exists
+   */
+  public boolean setBit (int n);
+
+  /** Sets bit number <code>n</code> to false.
+   * @param n the bit number
+   * @return the previous value of the bit
+   * @throws IndexOutOfBoundsException if no such bit exists
+   */
+  public boolean clearBit (int n);
+
+  /** Sets bit number <code>n</code> to its next value.
+   * @param n the bit number
+   * @return the previous value of the bit
+   * @throws IndexOutOfBoundsException if no such bit exists
+   */
+  public boolean nextBit (int n);
+
+  /** Sets the clock direction.
+   * @param d the new direction
+   */
+  public void setDirection (Clock.Direction d);
+
+  /** Gets the clock direction.
+   * @return the current direction
+   */
+  public Clock.Direction getDirection ();
+
+  /** Steps the clock once, in its current direction. */
+  public void step ();
+
+  /** Advances the clock by {@code n} steps at once.
+   * @param n the number of steps
+   * @see Clock#advance(long)
+   */
+  public void advance (long n);
+
+  /** Sets each bit value according to the array of booleans.
+   * @param v the new value, least significant bit first
+   * @throws IllegalArgumentException if the array does not have one
+   * value per bit
+   */
+  public void setValue (boolean[] v);
+
+  /** Sets each bit value according the long parameter.
+   * @param v the new value
+   * @see Clock#setLongValue
+   */
+  public void setLongValue (long v);
+
+  /** Boolean value for each bit, as an array.
+   * @return the value, least significant bit first
+   */
+  public boolean[] getValue ();
+
+  /** All bit values, as a long.
+   * @return the value
+   * @see Clock#getLongValue
+   */
+  public long getLongValue ();
+
+  /** A consistent copy of the clock state.
+   * @return the snapshot
+   */
+  public ClockSnapshot snapshot ();
+}
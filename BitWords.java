@@ -0,0 +1,144 @@
+package cs671;
+
+/** Word-level arithmetic on bit strings packed into {@code long}
+ * arrays.  Bit number {@code i} of a string starting at word
+ * {@code off} is bit {@code i % 64} of word {@code off + i / 64}.
+ * Bits of the last word beyond the string length are always kept at
+ * zero, using the mask returned by {@link #lastMask}.
+ *
+ * <p> None of these methods synchronize; callers are responsible
+ * for guarding the arrays they pass in.
+ */
+final class BitWords {
+
+  private BitWords () {}
+
+  /** Number of words needed to store {@code nbBits} bits. */
+  static int wordCount (int nbBits) {
+    return (nbBits + 63) >>> 6;
+  }
+
+  /** Mask of the valid bits in the last word of a {@code nbBits}-bit
+   * string.
+   */
+  static long lastMask (int nbBits) {
+    return -1L >>> -nbBits;
+  }
+
+  /** Adds one to the string, wrapping around to zero.  The carry
+   * propagates a full word at a time: a word only carries into the
+   * next one when it overflows to zero.
+   *
+   * @return the index of the last word that changed; all words
+   * before it went from all ones to zero
+   */
+  static int increment (long[] w, int off, int len, long lastMask) {
+    int last = off + len - 1;
+    for (int i = off; i < last; i++) {
+      if (++w[i] != 0L)
+        return i;
+    }
+    w[last] = (w[last] + 1L) & lastMask;
+    return last;
+  }
+
+  /** Subtracts one from the string, wrapping around to all ones.
+   *
+   * @return the index of the last word that changed; all words
+   * before it went from zero to all ones
+   */
+  static int decrement (long[] w, int off, int len, long lastMask) {
+    int last = off + len - 1;
+    for (int i = off; i < last; i++) {
+      if (w[i]-- != 0L)
+        return i;
+    }
+    w[last] = (w[last] - 1L) & lastMask;
+    return last;
+  }
+
+  /** Changed-bit mask of a step.  Given the words of a string after
+   * {@link #increment} or {@link #decrement} returned {@code k}, builds
+   * the mask of the bits that changed in words {@code off} to {@code
+   * k}: every bit of the words that carried, and the trailing bits of
+   * word {@code k}.
+   */
+  static long[] stepMask (long[] w, int off, int len, long lastMask,
+                          int k, boolean forward) {
+    long[] m = new long[k - off + 1];
+    java.util.Arrays.fill(m, 0, m.length - 1, -1L);
+    long v = w[k];
+    long x = forward ? v ^ (v - 1L) : v ^ (v + 1L);
+    m[m.length - 1] = (k == off + len - 1) ? x & lastMask : x;
+    return m;
+  }
+
+  /** Adds a sign-extended 64-bit value to the string, wrapping around
+   * modulo the string length.  The added value is {@code low} in the
+   * first word, {@code ext} in every following word, plus an initial
+   * {@code carry} of 0 or 1.  Adding {@code n} uses {@code (n, n >> 63,
+   * 0)}; subtracting it uses the two's complement {@code (~n, ~(n >>
+   * 63), 1)}.  The loop stops as soon as the remaining words can no
+   * longer change.
+   */
+  static void add (long[] w, int off, int len, long lastMask,
+                   long low, long ext, long carry) {
+    int last = off + len - 1;
+    long b = low;
+    for (int i = off; i <= last; i++) {
+      if (i > off) {
+        if ((ext == 0L && carry == 0L) || (ext == -1L && carry == 1L))
+          return; // adding zero from here on
+        b = ext;
+      }
+      long a = w[i];
+      long s = a + b + carry;
+      carry = (Long.compareUnsigned(s, a) < 0
+               || (carry != 0L && s == a)) ? 1L : 0L;
+      w[i] = s;
+    }
+    w[last] &= lastMask;
+  }
+
+  /** Adds a multi-word value to the string, wrapping around modulo
+   * the string length.  Word {@code i} of {@code v} is added to word
+   * {@code off + i}; {@code v} may be shorter than the string.
+   */
+  static void add (long[] w, int off, int len, long lastMask, long[] v) {
+    int last = off + len - 1;
+    long carry = 0L;
+    for (int i = 0; i < len; i++) {
+      long b = (i < v.length) ? v[i] : 0L;
+      if (i >= v.length && carry == 0L)
+        break;
+      long a = w[off + i];
+      long s = a + b + carry;
+      carry = (Long.compareUnsigned(s, a) < 0
+               || (carry != 0L && s == a)) ? 1L : 0L;
+      w[off + i] = s;
+    }
+    w[last] &= lastMask;
+  }
+
+  /** Packs a non-negative integer into words, least significant word
+   * first.  Only the first {@code len} words are kept.
+   */
+  static long[] fromBigInteger (java.math.BigInteger v, int len) {
+    byte[] bytes = v.toByteArray(); // big-endian, possibly a sign byte
+    long[] w = new long[len];
+    for (int i = 0; i < bytes.length && (i >>> 3) < len; i++) {
+      long b = bytes[bytes.length - 1 - i] & 0xFFL;
+      w[i >>> 3] |= b << ((i & 7) << 3);
+    }
+    return w;
+  }
+
+  /** Tests whether any bit is set in words {@code [from, to)}. */
+  static boolean anySet (long[] w, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (w[i] != 0L)
+        return true;
+    }
+    return false;
+  }
+}
@@ -1,12 +1,20 @@
 package cs671;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Modifier;
-import java.util.BitSet;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.StampedLock;
 
 /** Binary clocks.  These clocks can either be passive objects or
  * include their own timer.  In the latter case, their value is
- * updated every second.  Clock updates (automatic or manual) may
+ * updated periodically, every second by default (see {@link
+ * #setPeriod}).  Clock updates (automatic or manual) may
  * increase or decrease the clock value depending on its current
  * "direction".  The direction of a clock can be changed at any time.
  * It is {@link Direction#FORWARD} by default.
@@ -21,39 +29,82 @@ import java.util.BitSet;
  * clock's observers.  Note that some method calls do not trigger an
  * update, for instance if a clock is set to a value equal to its
  * current value or if the clock's direction is set to a value equal
- * to its current direction.
+ * to its current direction.  Observers receive a {@link ClockEvent}
+ * holding the new value and the bits that changed.  By default,
+ * observers are notified synchronously, on the thread that changed the
+ * clock (the timer thread, for automatic updates); a clock can instead
+ * hand its notifications to a {@link ClockDispatcher}.
+ *
+ *<p> Automatic updates and observer notifications are measured in
+ * {@link ClockMetrics}, which is available through JMX.
  *
  *<p> Since a timer thread (on active clocks) needs to access the
  * state of the clock, all state-changing and state-querying methods
- * are thread-safe.
+ * are thread-safe.  State changes are serialized by the clock {@link
+ * #lock}; queries never acquire it.  Instead, they read the state
+ * optimistically and retry if a change happened meanwhile, so readers
+ * never block writers (or each other).  Use {@link #snapshot} to read
+ * several bits consistently.
  *
  * @author  Michel Charpentier
  * @version 3.1, 2/11/13
  * @see ClockTimer
+ * @see BinaryClock
  * @see java.util.Observable
  */
-public class Clock extends java.util.Observable {
+public class Clock extends java.util.Observable implements BinaryClock {
 
   static final String DEFAULT_TIMER_CLASS = SimpleClockTimer.class.getName();
 
+  /** Default tick period of active clocks, in milliseconds */
+  public static final long DEFAULT_PERIOD = 1000L;
+
   /** Number of bits clock will represent */
   private final int nbBits;
   /** Timer to be used to perform tasks */
   private ClockTimer ct;
-  /** Array of bits which represent timer in binary */
-  private BitSet bits;
-  
+  /** Tick period, in nanoseconds */
+  private volatile long period = TimeUnit.MILLISECONDS.toNanos(DEFAULT_PERIOD);
+  /** Bits of the clock, packed 64 to a word, least significant word
+   * first.  Bits of the last word beyond {@code nbBits} are always zero.
+   */
+  private final long[] words;
+  /** Mask of the valid bits in the last word of {@code words} */
+  private final long lastMask;
+
   /** Direction of clock, either forward or backwards */
-  private Direction dir = Clock.Direction.FORWARD;
+  private volatile Direction dir = Clock.Direction.FORWARD;
 
   /** The "lock" that guards all clock state changes.  Every state
    * change, including automatic changes on active clocks, is
    * performed while owning this lock.
    */
   protected final Object lock;
+
+  /** Version of the state, for optimistic reads.  Writers hold its
+   * write lock, while owning {@link #lock}, around every change of the
+   * bits or of the direction; readers never lock it.
+   */
+  private final StampedLock seq = new StampedLock();
   
-  /** Determines whether or not the timer has already been started */
-  private boolean hasStarted = false;
+  /** Dispatcher of notifications, null for synchronous notifications */
+  private volatile ClockDispatcher dispatcher;
+  /** Change not yet delivered by the dispatcher */
+  final AtomicReference<ClockEvent> pending = new AtomicReference<ClockEvent>();
+  /** Number of events built, guarded by {@link #lock} */
+  private long events;
+  /** Orders the notifications of observers */
+  private final Object notifyLock = new Object();
+  /** Last event delivered, guarded by {@code notifyLock} */
+  private ClockEvent delivered;
+  /** Number of observers, kept so it can be read without locking */
+  private volatile int observers;
+
+  /** Determines whether or not the clock was started and not stopped
+   * since; volatile rather than guarded by {@code lock}, since the
+   * timer must not be started or stopped while owning the clock lock
+   */
+  private volatile boolean hasStarted = false;
 
   /** Constructs a passive clock with <code>nbBits</code> bits.  Initially, all
    * bits are off (false).  The clock has no timer.
@@ -63,8 +114,12 @@ public class Clock extends java.util.Observable {
    */
   public Clock (int nbBits) {
     //this(nbBits, DEFAULT_TIMER_CLASS);
+     if(nbBits < 1) {
+         throw new IllegalArgumentException("nbBits must be greater then zero");
+     }
      this.nbBits = nbBits;
-     bits = new BitSet(nbBits);
+     words = new long[BitWords.wordCount(nbBits)];
+     lastMask = BitWords.lastMask(nbBits);
      lock = new Object();
   }
 
@@ -78,52 +133,55 @@ public class Clock extends java.util.Observable {
    * class must implement the {@code ClockTimer} interface and it must
    * have a public, no-argument constructor.  Clock implementations
    * <em>must</em> at least accept {@code "cs671.SimpleClockTimer"} and
-   * {@code "cs671.UtilClockTimer"} as valid timer classes.
+   * {@code "cs671.UtilClockTimer"} as valid timer classes.  Use
+   * {@code "cs671.WheelClockTimer"} to drive many clocks from a single
+   * shared thread, or {@code "cs671.GroupClockTimer"} to step all the
+   * clocks that share a delay in one parallel pass.  Any name
+   * registered with {@link ClockTimerRegistry} is also accepted.
    * @throws IllegalArgumentException if <code>nbBits &lt; 1</code> or if
    * the specified class cannot be loaded, cannot be instantiated or
    * is not of type {@code ClockTimer}
    * @see ClockTimer
+   * @see ClockTimerRegistry
    */
   public Clock (int nbBits, String timerClass) { // bonus question
+    this(nbBits, timerClass, DEFAULT_PERIOD);
+  }
+
+  /** Constructs an active clock with <code>nbBits</code> bits and the
+   * given tick period.  Initially, all bits are off (false) and the
+   * clock is associated with a new timer of the specified class.  The
+   * clock is initially stopped.
+   *
+   * @param nbBits the number of bits of this clock
+   * @param timerClass the name of a timer-implementing class (see
+   * {@link #Clock(int,String)})
+   * @param period the tick period, in milliseconds
+   * @throws IllegalArgumentException if <code>nbBits &lt; 1</code>, if
+   * the period is not positive or if the specified class cannot be
+   * loaded, cannot be instantiated or is not of type {@code ClockTimer}
+   * @see #setPeriod
+   */
+  public Clock (int nbBits, String timerClass, long period) {
     if(nbBits < 1) {
         throw new IllegalArgumentException("nbBits must be greater then zero");
     }
     
-    bits = new BitSet(nbBits);
-    bits.set(0, nbBits, false);
+    words = new long[BitWords.wordCount(nbBits)];
+    lastMask = BitWords.lastMask(nbBits);
     
     this.nbBits = nbBits;
     lock = new Object();  
     
-    try {
-        Class<?> c = Class.forName(timerClass);
-        if(ClockTimer.class.isAssignableFrom(c)) {
-                Class<? extends ClockTimer> cc = c.asSubclass(ClockTimer.class);  
-                Constructor<?> cons = cc.getConstructor();
-                if(cons == null) {
-                    System.err.println("Constructor does not exist");
-                    return;
-                }
-                cons.setAccessible(true);
-                int i = cons.getModifiers();
-                if(i == Modifier.STATIC) {
-                    
-                }
-                else {
-                    ct = (ClockTimer) cons.newInstance();
-                }
-            }
-            else {
-                throw new IllegalArgumentException("Class " + timerClass +
-                                                    " is not of type ClockTimer");
-            }
-    } catch (Exception | Error ex) {
-        throw new IllegalArgumentException("Specified class cannot be loaded: " 
-                                            + timerClass);
+    if(period <= 0) {
+        throw new IllegalArgumentException("Period is not positive");
     }
     
-    ct.setDelay(1000L);
+    ct = ClockTimerRegistry.newTimer(timerClass);
+    ct.setDelay(period);
+    this.period = TimeUnit.MILLISECONDS.toNanos(period);
     ct.setRunnable(new Task(this)); 
+    ClockMetrics.get();
   }
 
   /** Constructs an active clock with <code>nbBits</code> bits.  Initially,
@@ -137,21 +195,43 @@ public class Clock extends java.util.Observable {
    * if timer {@code t} is running
    */
   public Clock (int nbBits, ClockTimer t) {
+      this(nbBits, t, DEFAULT_PERIOD);
+  }
+
+  /** Constructs an active clock with <code>nbBits</code> bits and the
+   * given tick period.  Initially, all bits are off (false) and the
+   * clock is associated with the given timer.  The clock is initially
+   * stopped.
+   *
+   * @param nbBits the number of bits of this clock
+   * @param t a timer; if the timer already has a delay and a
+   * runnable, they will be reset
+   * @param period the tick period, in milliseconds
+   * @throws IllegalArgumentException if <code>nbBits &lt; 1</code>, if
+   * the period is not positive or if timer {@code t} is running
+   * @see #setPeriod
+   */
+  public Clock (int nbBits, ClockTimer t, long period) {
       if(nbBits < 1) {
           throw new IllegalArgumentException("nbBits must be greater then zero");
       }
       if(t.isRunning()) {
           throw new IllegalArgumentException("Click is running");
       }
+      if(period <= 0) {
+          throw new IllegalArgumentException("Period is not positive");
+      }
       
-      bits = new BitSet(nbBits);
-      bits.set(0, nbBits, false);
+      words = new long[BitWords.wordCount(nbBits)];
+      lastMask = BitWords.lastMask(nbBits);
       
       ct = t;
-      ct.setDelay(1000L);
+      ct.setDelay(period);
+      this.period = TimeUnit.MILLISECONDS.toNanos(period);
       ct.setRunnable(new Task(this));
       this.nbBits = nbBits;
       lock = new Object();
+      ClockMetrics.get();
   }
   
   /** 
@@ -162,9 +242,8 @@ public class Clock extends java.util.Observable {
     public Task(Clock c) { clock = c; }
       @Override
     public void run() {
-        synchronized(clock.lock) {
-          clock.step();
-        }
+        // tick() takes whatever lock the clock implementation needs
+        clock.tick();
     }
       
   }
@@ -188,12 +267,13 @@ public class Clock extends java.util.Observable {
   public void destroy () {
       if(ct != null) {
         ct.cancel();
-        updateObs();
+        updateObs(valueEvent());
       }
   }
 
-  /** Starts the clock.  The first bit update occurs after 1
-   * second and every second after that, until the clock is stopped.
+  /** Starts the clock.  The first bit update occurs after one period
+   * (one second by default) and every period after that, until the
+   * clock is stopped.
    *
    * @throws IllegalStateException if the clock is passive or is already running
    */
@@ -216,6 +296,56 @@ public class Clock extends java.util.Observable {
     if(!ct.isRunning()) { throw new IllegalStateException("Clock is not running"); }
     
     ct.stop();
+    hasStarted = false;
+  }
+
+  /** Sets the tick period.  The clock must be stopped; the new period
+   * applies from the next start.  The timer of the clock is kept, so
+   * the period can be changed any number of times without creating
+   * timer threads.
+   *
+   * @param period the tick period, in milliseconds
+   * @throws IllegalArgumentException if the period is not positive
+   * @throws IllegalStateException if the clock is passive or is running
+   */
+  public void setPeriod (long period) {
+    setPeriod(period, TimeUnit.MILLISECONDS);
+  }
+
+  /** Sets the tick period in any time unit.  Periods shorter than a
+   * millisecond are only accepted by timers that can honor them (see
+   * {@link ClockTimer#setDelay(long,TimeUnit)}).
+   *
+   * @param period the tick period
+   * @param unit the unit of {@code period}
+   * @throws IllegalArgumentException if the period is not positive or
+   * if the timer of this clock cannot honor it
+   * @throws IllegalStateException if the clock is passive or is running
+   * @see #setPeriod(long)
+   */
+  public void setPeriod (long period, TimeUnit unit) {
+    if(ct == null) { throw new IllegalStateException("Clock is passive"); }
+    if(ct.isRunning()) { throw new IllegalStateException("Clock is running"); }
+    ct.setDelay(period, unit);
+    this.period = unit.toNanos(period);
+  }
+
+  /** The tick period.
+   * @return the tick period in milliseconds (rounded down), or 0 if the
+   * clock is passive
+   */
+  public long getPeriod () {
+    return getPeriod(TimeUnit.MILLISECONDS);
+  }
+
+  /** The tick period in any time unit.
+   * @param unit the unit of the result
+   * @return the tick period in the given unit (rounded down), or 0 if
+   * the clock is passive
+   */
+  public long getPeriod (TimeUnit unit) {
+    if(ct == null) { return 0L; }
+    return unit.convert(period, TimeUnit.NANOSECONDS);
   }
 
   /** The status of the clock, as a boolean.
@@ -228,13 +358,21 @@ public class Clock extends java.util.Observable {
   }
 
   /** Resets the clock.  All bits are set to zero.  If the clock is
-   * running, the next bit update will happen 1 second after bits are
+   * running, the next bit update will happen one period after bits are
    * cleared.  Observers are notified if the clock is running or if it
    * was non-zero.
    */
   public void clear () {
+      ClockEvent e;
       synchronized(lock) {
-        bits.clear();
+        long[] before = observedValue();
+        long s = seq.writeLock();
+        Arrays.fill(words, 0L);
+        seq.unlockWrite(s);
+        e = changes(before);
+      }
+      if(e != null && (e.hasChanges() || isTicking())) {
+        updateObs(e);
       }
   }
 
@@ -248,11 +386,13 @@ public class Clock extends java.util.Observable {
   public boolean getBit (int n) {
       if((n < 0) || (n > (nbBits-1))) { throw new IndexOutOfBoundsException("No such bit (" + n + ") exists"); }
       
-      boolean ret;
-      synchronized(lock) {
-          ret = bits.get(n);
-      }
-      return ret;
+      long word;
+      long stamp;
+      do {
+          stamp = optimisticStamp();
+          word = words[n >>> 6];
+      } while(!seq.validate(stamp));
+      return (word & (1L << n)) != 0L;
   }
 
   /** Sets bit number <code>n</code> to true.  Least significant bit is bit
@@ -266,14 +406,17 @@ public class Clock extends java.util.Observable {
       if((n < 0) || (n > (nbBits-1))) { throw new IndexOutOfBoundsException("No such bit (" + n + ") exists"); }
       
       boolean ret;
+      ClockEvent e = null;
       synchronized(lock) {
-        ret = bits.get(n);
-        bits.set(n, true);
-        if(ret != bits.get(n)) {
-         //updateObs();
+        ret = (words[n >>> 6] & (1L << n)) != 0L;
+        long s = seq.writeLock();
+        words[n >>> 6] |= 1L << n;
+        seq.unlockWrite(s);
+        if(!ret) {
+          e = bitEvent(n);
         }
       }
-      
+      updateObs(e);
       return ret;
   }
 
@@ -287,13 +430,17 @@ public class Clock extends java.util.Observable {
   public boolean clearBit (int n) {
     if((n < 0) || (n > (nbBits-1))) { throw new IndexOutOfBoundsException("No such bit (" + n + ") exists"); }
     boolean ret;
+    ClockEvent e = null;
     synchronized(lock) {
-        ret = bits.get(n);
-        bits.clear(n);
-        if(ret != bits.get(n)) {
-            //updateObs();
+        ret = (words[n >>> 6] & (1L << n)) != 0L;
+        long s = seq.writeLock();
+        words[n >>> 6] &= ~(1L << n);
+        seq.unlockWrite(s);
+        if(ret) {
+            e = bitEvent(n);
       }
     }
+    updateObs(e);
     return ret;
   }
 
@@ -311,13 +458,46 @@ public class Clock extends java.util.Observable {
   public boolean nextBit (int n) {
       if((n < 0) || (n > (nbBits-1))) { throw new IndexOutOfBoundsException("No such bit (" + n + ") exists"); }
       boolean ret;
+      ClockEvent e;
       synchronized(lock) {
-        ret = bits.get(n);
-        bits.flip(n);
+        ret = (words[n >>> 6] & (1L << n)) != 0L;
+        long s = seq.writeLock();
+        words[n >>> 6] ^= 1L << n;
+        seq.unlockWrite(s);
+        e = bitEvent(n);
       }
+      updateObs(e);
       return ret;
   }
 
+  /** Sets how observers are notified.  With a dispatcher, state
+   * changes only hand their {@link ClockEvent} over to the dispatcher,
+   * which notifies observers on its own thread; successive changes
+   * that happen before observers are notified are merged into one
+   * event, so a slow observer never delays the clock.  With {@code
+   * null} (the default), observers are notified synchronously.  A
+   * change not yet delivered by the previous dispatcher is handed over
+   * to the new one (or, with {@code null}, delivered now).
+   *
+   * @param d the dispatcher, or null
+   * @see ClockDispatcher
+   */
+  public void setDispatcher (ClockDispatcher d) {
+    dispatcher = d;
+    // taken after the switch, so changes posted in between are merged
+    // into it rather than queued on the previous dispatcher
+    ClockEvent e = pending.getAndSet(null);
+    if(e != null) { updateObs(e); }
+  }
+
+  /** Gets the dispatcher of notifications.
+   * @return the dispatcher, or null if observers are notified
+   * synchronously
+   */
+  public ClockDispatcher getDispatcher () {
+    return dispatcher;
+  }
+
   /** Clock direction: FORWARD or BACKWARD.
    * @see #setDirection
    */
@@ -348,11 +528,59 @@ public class Clock extends java.util.Observable {
     abstract public Direction reverse ();
   }
 
-  /** Sets the clock direction, FORWARD or BACKWARD. */
+  /** Text renderings of a clock value.
+   * @see #formatInto
+   * @see #appendTo(Appendable,Format)
+   */
+  public enum Format {
+    /** One character, '0' or '1', per bit, most significant bit first,
+     * as in {@link Clock#toString}.
+     */
+    BINARY {
+        @Override
+      public int maxLength (int nbBits) {
+        return nbBits;
+      }
+    },
+    /** One lowercase hexadecimal digit per group of four bits, most
+     * significant digit first, including leading zeros.
+     */
+    HEX {
+        @Override
+      public int maxLength (int nbBits) {
+        return (nbBits + 3) >>> 2;
+      }
+    },
+    /** The value as an unsigned decimal number, without leading zeros.
+     */
+    DECIMAL {
+        @Override
+      public int maxLength (int nbBits) {
+        return (int)(nbBits * 0.30103) + 1; // log10(2) < 0.30103
+      }
+    };
+
+    /** Maximum length of a rendering.
+     * @param nbBits the number of bits of a clock
+     * @return an upper bound of the number of characters needed to
+     * render the value of such a clock
+     */
+    abstract public int maxLength (int nbBits);
+  }
+
+  /** Sets the clock direction, FORWARD or BACKWARD.  Observers are
+   * notified if the direction changes; the event reports the current
+   * value, with no changed bits.
+   */
   public void setDirection (Direction d) {
+    boolean changed;
     synchronized(lock) {
+      changed = (dir != d);
+      long s = seq.writeLock();
       dir = d;
+      seq.unlockWrite(s);
     }
+    if(changed) { updateObs(valueEvent()); }
   }
 
   /** Gets the clock direction.
@@ -367,27 +595,112 @@ public class Clock extends java.util.Observable {
    * that bit number 0 is guaranteed to change as a result of calling
    * this method and therefore observers are always notified.
    *
+   * <p> The carry is propagated a word (64 bits) at a time rather than
+   * bit by bit, so long carry chains on wide clocks stay cheap.
+   *
    * @see #setDirection
    */
   public void step () {
+      ClockEvent e;
+      synchronized(lock) {
+        e = stepLocked();
+      }
+       
+      updateObs(e);
+  }
+
+  /** Steps the clock while owning the lock.
+   * @return the change, or null if there are no observers
+   */
+  private ClockEvent stepLocked () {
+      boolean forward = getDirection() == Direction.FORWARD;
+      int k;
+      long s = seq.writeLock();
+      if(forward) {
+        k = BitWords.increment(words, 0, words.length, lastMask);
+      }
+      else {
+        k = BitWords.decrement(words, 0, words.length, lastMask);
+      }
+      seq.unlockWrite(s);
+      if(countObservers() == 0) { return null; }
+      return new ClockEvent(this, ++events, words.clone(), 0,
+                            BitWords.stepMask(words, 0, words.length, lastMask, k, forward));
+  }
+
+  /** Automatic update: steps the clock and records the time spent in
+   * the step, waiting for the lock and notifying observers in {@link
+   * ClockMetrics}.  Called by the timer task.
+   */
+  void tick () {
+      long t0 = System.nanoTime();
+      ClockEvent e;
+      long wait;
       synchronized(lock) {
+        wait = System.nanoTime() - t0;
+        e = stepLocked();
+      }
+      updateObs(e);
+      ClockMetrics.INSTANCE.tick(System.nanoTime() - t0, wait);
+  }
+
+  /** Advances the clock by {@code n} steps at once.  The value of the
+   * clock is increased by {@code n} if the direction is {@link
+   * Direction#FORWARD} and decreased by {@code n} otherwise, wrapping
+   * around modulo {@code 2^size()} exactly as {@code n} calls to
+   * {@link #step} would.  A negative {@code n} moves the clock against
+   * its direction.  The whole update is performed in a single critical
+   * section and observers are notified once, if the value changed.
+   *
+   * @param n number of steps
+   * @see #step
+   */
+  public void advance (long n) {
+      boolean changed = (nbBits >= 64) ? n != 0L : (n & lastMask) != 0L;
+      if(!changed) { return; }
+      ClockEvent e;
+      synchronized(lock) {
+        long[] before = observedValue();
+        long s = seq.writeLock();
         if(getDirection() == Direction.FORWARD) {
-          boolean b = nextBit(0);
-          int index = 1;
-          while((index < nbBits) && b) {
-              b = nextBit(index++);
-          }
+          BitWords.add(words, 0, words.length, lastMask, n, n >> 63, 0L);
         }
         else {
-          boolean b = nextBit(0);
-          int index = 1;
-          while((index < nbBits) && !b) {
-              b = nextBit(index++);
-          } 
+          BitWords.add(words, 0, words.length, lastMask, ~n, ~(n >> 63), 1L);
         }
+        seq.unlockWrite(s);
+        e = changes(before);
       }
-       
-      updateObs();
+      updateObs(e);
+  }
+
+  /** Advances the clock by an arbitrary number of steps at once.
+   * This is the same as {@link #advance(long)}, for step counts that
+   * do not fit in a {@code long}.
+   *
+   * @param n number of steps
+   * @see #advance(long)
+   */
+  public void advance (BigInteger n) {
+      if(n.bitLength() < 64) {
+          advance(n.longValue());
+          return;
+      }
+      BigInteger modulus = BigInteger.ONE.shiftLeft(nbBits);
+      BigInteger d;
+      ClockEvent e = null;
+      synchronized(lock) {
+        d = (getDirection() == Direction.FORWARD) ? n.mod(modulus) : n.negate().mod(modulus);
+        if(d.signum() != 0) {
+          long[] before = observedValue();
+          long[] addend = BitWords.fromBigInteger(d, words.length);
+          long s = seq.writeLock();
+          BitWords.add(words, 0, words.length, lastMask, addend);
+          seq.unlockWrite(s);
+          e = changes(before);
+        }
+      }
+      updateObs(e);
   }
 
   /** Sets each bit value according to the array of booleans.  The
@@ -406,13 +719,25 @@ public class Clock extends java.util.Observable {
       if(v.length != nbBits) { 
           throw new IllegalArgumentException("Size of array is differnt from the" 
                  + " number of bits int the clock"); }
+      ClockEvent e;
       synchronized(lock) {
-        for(int i = 0; i < v.length; i++) {
-            bits.set(i, v[i]);
+        long[] before = observedValue();
+        long s = seq.writeLock();
+        for(int w = 0; w < words.length; w++) {
+            long word = 0L;
+            int end = Math.min(nbBits, (w + 1) << 6);
+            for(int i = w << 6; i < end; i++) {
+                if(v[i]) { word |= 1L << i; }
+            }
+            words[w] = word;
         }
+        seq.unlockWrite(s);
+        e = changes(before);
       }
       
-      //updateObs();
+      if(e != null && e.hasChanges()) {
+        updateObs(e);
+      }
   }
 
   /** Sets each bit value according the long parameter.  If the clock
@@ -428,22 +753,20 @@ public class Clock extends java.util.Observable {
    * bit set to true beyond the clock's capacity.
    */
   public void setLongValue (long v) {
-    if(v > (Math.pow(2, nbBits)-1)) { throw new IndexOutOfBoundsException("Value is " + 
+    if(nbBits < 63 && v > lastMask) { throw new IndexOutOfBoundsException("Value is " + 
                             "beyond clock capacity"); }
+    ClockEvent e;
     synchronized(lock) {
-        bits.clear();
-        for(int i = 0; i < nbBits; i++) {
-            // sets bits 63 and beyond to 0
-            if(i > 62) {
-                bits.set(i, false);
-                continue;
-            }
-
-            // mods with 2 to figure out even or odd, sets bit accordingly, then shifts
-            if(v % 2L != 0) { bits.set(i, true); }
-            else { bits.set(i, false); }
-            v = v >>> 1;
-        }
+        long[] before = observedValue();
+        long s = seq.writeLock();
+        // sets bits 64 and beyond to 0
+        Arrays.fill(words, 1, words.length, 0L);
+        words[0] = (words.length == 1) ? v & lastMask : v;
+        seq.unlockWrite(s);
+        e = changes(before);
+    }
+    if(e != null && e.hasChanges()) {
+        updateObs(e);
     }
   }
 
@@ -456,14 +779,7 @@ public class Clock extends java.util.Observable {
    * @return boolean value for each bit
    */
   public boolean[] getValue () {
-      boolean[] ret = new boolean[nbBits];
-      
-      synchronized(lock) {
-        for(int i = 0; i < bits.length(); i++) {
-            ret[i] = bits.get(i);
-        }
-      }
-      return ret;
+      return snapshot().getValue();
   }
 
   /** All bit values, as a long.  The least
@@ -474,30 +790,339 @@ public class Clock extends java.util.Observable {
    * than 64 bits <em>and</em> at least one bit beyond 63 is set
    */
   public long getLongValue () {
-    if(bitExceed()) { throw new IllegalStateException("Bits are set beyond bit 63"); }
-    
-    long value = 0L;
+    long value;
+    boolean exceed;
+    long stamp;
+    do {
+        stamp = optimisticStamp();
+        value = words[0];
+        exceed = BitWords.anySet(words, 1, words.length);
+    } while(!seq.validate(stamp));
+    if(exceed) { throw new IllegalStateException("Bits are set beyond bit 63"); }
+    return value;
+  }
+
+  /** Copies all bits into an array of words, without allocating.  Bit
+   * number <code>i</code> of the clock is bit <code>i % 64</code> of
+   * word <code>i / 64</code>; bits of the last word beyond the size of
+   * the clock are zero.  Words are copied at once, from a consistent
+   * state of the clock.
+   *
+   * @param dest array that receives the value; only its first
+   * <code>(size() + 63) / 64</code> words are written
+   * @return the number of words written
+   * @throws IllegalArgumentException if the array is too short
+   */
+  public int getBits (long[] dest) {
+    if(dest.length < words.length) { throw new IllegalArgumentException("Array is too short"); }
+    long stamp;
+    do {
+        stamp = optimisticStamp();
+        System.arraycopy(words, 0, dest, 0, words.length);
+    } while(!seq.validate(stamp));
+    return words.length;
+  }
+
+  /** Sets all bits from an array of words, packed as in {@link
+   * #getBits}.  Note that observers are notified only if the clock
+   * value changes.
+   *
+   * @param src the new value; only its first <code>(size() + 63) /
+   * 64</code> words are used
+   * @throws IllegalArgumentException if the array is too short
+   * @throws IndexOutOfBoundsException if <code>src</code> has a bit set
+   * to true beyond the clock's capacity
+   */
+  public void setBits (long[] src) {
+    if(src.length < words.length) { throw new IllegalArgumentException("Array is too short"); }
+    if((src[words.length - 1] & ~lastMask) != 0L) { throw new IndexOutOfBoundsException("Value is " +
+                            "beyond clock capacity"); }
+    ClockEvent e;
     synchronized(lock) {
-        for (int i = 0; i < bits.length(); ++i) {
-            value += bits.get(i) ? (1L << i) : 0L;
+        long[] before = observedValue();
+        long s = seq.writeLock();
+        System.arraycopy(src, 0, words, 0, words.length);
+        seq.unlockWrite(s);
+        e = changes(before);
+    }
+    if(e != null && e.hasChanges()) {
+        updateObs(e);
+    }
+  }
+
+  /** Writes all bits to a buffer, as <code>(size() + 63) / 64</code>
+   * longs packed as in {@link #getBits}, in the byte order of the
+   * buffer.  The words are written straight from the clock, without
+   * intermediate copy.  The position of the buffer is advanced by the
+   * number of bytes written.
+   *
+   * @param b the buffer
+   * @throws java.nio.BufferOverflowException if the buffer does not
+   * have enough room; nothing is written
+   */
+  public void writeTo (ByteBuffer b) {
+    if(b.remaining() < 8 * words.length) { throw new BufferOverflowException(); }
+    int pos = b.position();
+    long stamp;
+    do {
+        stamp = optimisticStamp();
+        for(int i = 0; i < words.length; i++) {
+            b.putLong(pos + 8 * i, words[i]); // rewritten if the read is retried
         }
+    } while(!seq.validate(stamp));
+    b.position(pos + 8 * words.length);
+  }
+
+  /** Sets all bits from a buffer, as written by {@link #writeTo}.  The
+   * position of the buffer is advanced by the number of bytes read.
+   * Note that observers are notified only if the clock value changes.
+   *
+   * @param b the buffer
+   * @throws java.nio.BufferUnderflowException if the buffer does not
+   * hold enough bytes; nothing is read
+   * @throws IndexOutOfBoundsException if the value has a bit set to
+   * true beyond the clock's capacity; nothing is read
+   */
+  public void readFrom (ByteBuffer b) {
+    int n = words.length;
+    int pos = b.position();
+    if(b.remaining() < 8 * n) { throw new BufferUnderflowException(); }
+    if((b.getLong(pos + 8 * (n - 1)) & ~lastMask) != 0L) { throw new IndexOutOfBoundsException("Value is " +
+                            "beyond clock capacity"); }
+    ClockEvent e;
+    synchronized(lock) {
+        long[] before = observedValue();
+        long s = seq.writeLock();
+        for(int i = 0; i < n; i++) {
+            words[i] = b.getLong(pos + 8 * i); // straight into the clock words
+        }
+        seq.unlockWrite(s);
+        e = changes(before);
+    }
+    b.position(pos + 8 * n);
+    if(e != null && e.hasChanges()) {
+        updateObs(e);
     }
-    return value;
   }
-  
-  /** 
-   * Checks to see if the long has bits exceeding our capability
-   * @return True is exceeds, false if valid
+
+  /** All bit values, as a non-negative integer.  Bit number
+   * <code>i</code> of the clock is bit number <code>i</code> of the
+   * integer.  Unlike {@link #getLongValue}, this works for clocks of
+   * any size.
+   * @return the value of the clock
+   */
+  public BigInteger getBigValue () {
+    long[] v = new long[BitWords.wordCount(nbBits)];
+    getBits(v);
+    byte[] bytes = new byte[8 * v.length + 1]; // big-endian, with a zero sign byte
+    for(int i = 0; i < v.length; i++) {
+        long w = v[i];
+        for(int k = 0; k < 8; k++) {
+            bytes[bytes.length - 1 - 8 * i - k] = (byte)(w >>> (8 * k));
+        }
+    }
+    return new BigInteger(bytes);
+  }
+
+  /** Sets each bit value according to a non-negative integer.  Bit
+   * number <code>i</code> of the clock is set to bit number
+   * <code>i</code> of the integer.  Note that observers are notified
+   * only if the clock value changes.
+   *
+   * @param v value for each bit of the clock
+   * @throws IndexOutOfBoundsException if <code>v</code> is negative or
+   * has a bit set to true beyond the clock's capacity
+   */
+  public void setBigValue (BigInteger v) {
+    if(v.signum() < 0 || v.bitLength() > nbBits) { throw new IndexOutOfBoundsException("Value is " +
+                            "beyond clock capacity"); }
+    setBits(BitWords.fromBigInteger(v, BitWords.wordCount(nbBits)));
+  }
+
+  /** Renders the value of the clock into an array of characters.  The
+   * words of the clock are copied at once, as in {@link #getBits}, and
+   * rendered from the copy, using per-thread scratch space, so that
+   * nothing is allocated.
+   *
+   * @param dst the destination array
+   * @param off index of the first character to write
+   * @param f the rendering
+   * @return the number of characters written, at most {@code
+   * f.maxLength(size())}
+   * @throws IndexOutOfBoundsException if the rendering does not fit
+   * in {@code dst} from {@code off}; nothing is written
+   */
+  public int formatInto (char[] dst, int off, Format f) {
+    Scratch s = Scratch.get(nbBits, f);
+    int len = render(s, f);
+    if(off < 0 || off + len > dst.length) { throw new IndexOutOfBoundsException("Array is too short"); }
+    System.arraycopy(s.chars, 0, dst, off, len);
+    return len;
+  }
+
+  /** Appends the string representation of the clock, as returned by
+   * {@link #toString}, without allocating it.
+   * @param a where to append
+   * @return {@code a}
+   * @throws IOException if {@code a} fails
+   * @see #appendTo(Appendable,Format)
+   */
+  public Appendable appendTo (Appendable a) throws IOException {
+    return appendTo(a, Format.BINARY);
+  }
+
+  /** Appends a representation of the clock: its value, rendered as
+   * specified, followed by its status, as in {@link #toString}.  The
+   * value is rendered as in {@link #formatInto}, so nothing is
+   * allocated when appending to a {@code StringBuilder} or a {@code
+   * Writer}.
+   * @param a where to append
+   * @param f the rendering of the value
+   * @return {@code a}
+   * @throws IOException if {@code a} fails
+   */
+  public Appendable appendTo (Appendable a, Format f) throws IOException {
+    Scratch s = Scratch.get(nbBits, f);
+    int len = render(s, f);
+    if(a instanceof StringBuilder) {
+        ((StringBuilder)a).append(s.chars, 0, len);
+    }
+    else if(a instanceof Writer) {
+        ((Writer)a).write(s.chars, 0, len);
+    }
+    else {
+        for(int i = 0; i < len; i++) { a.append(s.chars[i]); }
+    }
+    return a.append(isTicking() ? " [ON]" : " [OFF]");
+  }
+
+  /** Per-thread space for rendering clocks. */
+  private static final class Scratch {
+    private static final ThreadLocal<Scratch> LOCAL = new ThreadLocal<Scratch>() {
+        @Override protected Scratch initialValue () {
+          return new Scratch();
+        }
+      };
+
+    long[] words = new long[1];
+    char[] chars = new char[64];
+
+    /** The scratch space of the calling thread, large enough for a
+     * clock of {@code nbBits} bits rendered as {@code f}.
+     */
+    static Scratch get (int nbBits, Format f) {
+      Scratch s = LOCAL.get();
+      int n = BitWords.wordCount(nbBits);
+      if(s.words.length < n) { s.words = new long[n]; }
+      int c = f.maxLength(nbBits) + 6; // room for the status
+      if(s.chars.length < c) { s.chars = new char[c]; }
+      return s;
+    }
+  }
+
+  /** Renders the current value into {@code s.chars}.
+   * @return the number of characters
    */
-  private boolean bitExceed() {
+  private int render (Scratch s, Format f) {
+    int n = getBits(s.words);
+    long[] w = s.words;
+    char[] c = s.chars;
+    switch(f) {
+    case BINARY:
+        for(int i = 0; i < nbBits; i++) {
+            c[nbBits - i - 1] = ((w[i >>> 6] & (1L << i)) != 0L) ? '1' : '0';
+        }
+        return nbBits;
+    case HEX:
+        int digits = f.maxLength(nbBits);
+        for(int k = 0; k < digits; k++) {
+            c[digits - k - 1] = Character.forDigit((int)(w[k >>> 4] >>> ((k & 15) << 2)) & 0xF, 16);
+        }
+        return digits;
+    default:
+        // divide by 10^9 until zero, taking the number 32 bits at a time
+        int end = f.maxLength(nbBits), pos = end;
+        int top = n;
+        while(top > 0 && w[top - 1] == 0L) { top--; }
+        while(top > 0) {
+            long rem = 0L;
+            for(int i = top - 1; i >= 0; i--) {
+                long x = (rem << 32) | (w[i] >>> 32);
+                long qh = x / 1000000000L;
+                x = ((x % 1000000000L) << 32) | (w[i] & 0xFFFFFFFFL);
+                w[i] = (qh << 32) | (x / 1000000000L);
+                rem = x % 1000000000L;
+            }
+            while(top > 0 && w[top - 1] == 0L) { top--; }
+            for(int k = 0; k < 9 && (top > 0 || rem != 0L); k++) {
+                c[--pos] = (char)('0' + rem % 10L);
+                rem /= 10L;
+            }
+        }
+        if(pos == end) { c[--pos] = '0'; }
+        System.arraycopy(c, pos, c, 0, end - pos);
+        return end - pos;
+    }
+  }
+
+  /** A consistent copy of the clock state.  The copy is taken without
+   * acquiring the clock lock: it is read optimistically and read again
+   * if the clock changed in the meantime.
+   *
+   * @return the current value and direction of the clock
+   * @see ClockSnapshot
+   */
+  public ClockSnapshot snapshot () {
+    long[] copy = new long[words.length];
+    Direction d;
+    long stamp;
+    do {
+        stamp = optimisticStamp();
+        System.arraycopy(words, 0, copy, 0, words.length);
+        d = dir;
+    } while(!seq.validate(stamp));
+    return new ClockSnapshot(nbBits, copy, d, isTicking());
+  }
+
+  /** Flips the bits set in a mask, e.g., to apply a change received
+   * from a remote clock.  Word {@code i} of the mask is XORed into
+   * word {@code from + i} of the clock.  Observers are notified if the
+   * value changed.
+   * @param from index of the first word to change
+   * @param mask array holding the mask
+   * @param off index of the first word of the mask in {@code mask}
+   * @param len number of words of the mask
+   * @throws IndexOutOfBoundsException if the mask goes beyond the size
+   * of the clock
+   */
+  void xorWords (int from, long[] mask, int off, int len) {
+    if(from < 0 || len < 0 || from + len > words.length) { throw new IndexOutOfBoundsException("Mask is beyond clock capacity"); }
+    ClockEvent e;
     synchronized(lock) {
-        for (int i = 64; i < bits.length(); i++) {
-          if(bits.get(i)) {
-              return true;
-          }
+        long[] before = observedValue();
+        long s = seq.writeLock();
+        for(int i = 0; i < len; i++) {
+            words[from + i] ^= mask[off + i];
         }
+        words[words.length - 1] &= lastMask;
+        seq.unlockWrite(s);
+        e = changes(before);
+    }
+    if(e != null && e.hasChanges()) {
+        updateObs(e);
     }
-    return false;
+  }
+
+  /** Starts an optimistic read of the state, waiting for a writer
+   * that is currently changing it, if any, to finish.
+   * @return a stamp to validate once the state has been read
+   */
+  private long optimisticStamp () {
+    long stamp;
+    while((stamp = seq.tryOptimisticRead()) == 0L) {
+        Thread.onSpinWait();
+    }
+    return stamp;
   }
 
 
@@ -513,26 +1138,170 @@ public class Clock extends java.util.Observable {
    * @return a string representation of the clock
    */
   @Override public String toString () {
-      StringBuilder ret = new StringBuilder();
-      String retStr;
-      synchronized(lock) {
-        for(int i = nbBits-1; i >= 0; i--) {
-            if(bits.get(i)) { ret.append(1); }
-            else { ret.append(0); }
-        }
-        if(ct != null && ct.isRunning()) { ret.append(" [ON]"); }
-        else { ret.append(" [OFF]"); }
-        retStr = ret.toString();
-      }
-      return retStr;
+      Scratch s = Scratch.get(nbBits, Format.BINARY);
+      int len = render(s, Format.BINARY);
+      String status = isTicking() ? " [ON]" : " [OFF]";
+      status.getChars(0, status.length(), s.chars, len);
+      return new String(s.chars, 0, len + status.length());
   }
   
+  /** Copy of the clock value, taken only if someone observes the
+   * clock.  Must be called while owning the lock.
+   * @return a copy of the words of the clock, or null if the clock
+   * has no observers
+   */
+  private long[] observedValue () {
+    return (countObservers() > 0) ? words.clone() : null;
+  }
+
+  /** Builds the event for a change from {@code before} to the current
+   * value.  Must be called while owning the lock.
+   * @param before the value returned by {@link #observedValue} before
+   * the change
+   * @return the event, or null if {@code before} is null
+   */
+  private ClockEvent changes (long[] before) {
+    if(before == null) { return null; }
+    return ClockEvent.between(this, ++events, before, words.clone());
+  }
+
+  /** Builds an event that reports the current value, without
+   * changes.  Subclasses that keep their value elsewhere than in the
+   * clock words override this method.
+   * @return the event, or null if the clock has no observers
+   */
+  ClockEvent valueEvent () {
+    synchronized(lock) {
+      long[] v = observedValue();
+      return (v != null) ? new ClockEvent(this, ++events, v) : null;
+    }
+  }
+
+  /** Builds the event for a change of bit {@code n} only.  Must be
+   * called while owning the lock.
+   * @return the event, or null if the clock has no observers
+   */
+  private ClockEvent bitEvent (int n) {
+    if(countObservers() == 0) { return null; }
+    return new ClockEvent(this, ++events, words.clone(), n >>> 6, new long[] { 1L << n });
+  }
+
+  /** Builds the event for a change of a clock of at most 64 bits from
+   * {@code before} to {@code after}.  The event is not numbered, since
+   * it is built without owning the lock.
+   * @return the event, or null if the clock has no observers
+   */
+  ClockEvent wordEvent (long before, long after) {
+    if(countObservers() == 0) { return null; }
+    return new ClockEvent(this, 0L, new long[] { after }, 0, new long[] { before ^ after });
+  }
+
+  /** Adds an observer.  The current value of the clock becomes the
+   * reference against which the changes notified to observers are
+   * ordered, if there is none yet.
+   * @see java.util.Observable#addObserver
+   */
+  @Override
+  public void addObserver (java.util.Observer o) {
+    super.addObserver(o);
+    observersChanged();
+    synchronized(notifyLock) {
+        if(delivered == null) { delivered = baseline(); }
+    }
+  }
+
+  @Override
+  public void deleteObserver (java.util.Observer o) {
+    super.deleteObserver(o);
+    observersChanged();
+  }
+
+  @Override
+  public void deleteObservers () {
+    super.deleteObservers();
+    observersChanged();
+  }
+
+  /** Number of observers.  Unlike that of {@code Observable}, this
+   * method does not lock the clock, so state changes can check for
+   * observers at no cost.
+   * @return the number of observers of this clock
+   * @see java.util.Observable#countObservers
+   */
+  @Override
+  public int countObservers () {
+    return observers;
+  }
+
+  /** Updates the observer count after observers were added or removed.
+   * Every update reads the count of {@code Observable} while owning its
+   * monitor, so the last update writes the final count.
+   */
+  private void observersChanged () {
+    synchronized(this) {
+        observers = super.countObservers();
+    }
+  }
+
+  /** Builds an event that reports the current value as the state
+   * after the last change numbered, without changes.
+   * @return the event
+   */
+  ClockEvent baseline () {
+    synchronized(lock) {
+      return new ClockEvent(this, events, words.clone());
+    }
+  }
+
+  /** Orders an event after the last one delivered.  Events are
+   * numbered while owning the lock, in the order of the changes, but
+   * threads deliver them after releasing it, possibly out of order.
+   * An event for the change that follows the last one delivered is
+   * delivered as is.  An event that is overtaken by a newer one is
+   * delivered as a status event with the value of the newer one.
+   * Otherwise, changes were skipped or merged (e.g., by a dispatcher,
+   * possibly with an overtaken one) and the changed bits are those
+   * that differ from the last value delivered.  Called while owning
+   * the notification lock.
+   *
+   * @param e the event to deliver
+   * @param last the last event delivered, or null
+   * @return the event to deliver instead of {@code e}
+   */
+  ClockEvent inOrder (ClockEvent e, ClockEvent last) {
+    if(last == null || (e.since == e.seq && e.seq == last.seq + 1)) { return e; }
+    if(e.seq <= last.seq) { return new ClockEvent(this, last.seq, last.value()); }
+    return ClockEvent.between(this, e.seq, last.value(), e.value());
+  }
+
   /**
    * Updates all observers a change has been made 
+   * @param e the change, or null if there is nothing to report
    */
-  private void updateObs() {
-    super.setChanged();
-    super.notifyObservers();
-    super.clearChanged();
+  void updateObs(ClockEvent e) {
+    if(e == null) { return; }
+    ClockDispatcher d = dispatcher;
+    if(d != null) {
+        d.post(this, e);
+    }
+    else {
+        deliver(e);
+    }
+  }
+
+  /** Notifies all observers of a change, on the calling thread.
+   * @param e the change
+   */
+  void deliver(ClockEvent e) {
+    // notifications are serialized, so observers see the changes in order
+    synchronized(notifyLock) {
+        e = inOrder(e, delivered);
+        delivered = e;
+        long t0 = System.nanoTime();
+        super.setChanged();
+        super.notifyObservers(e);
+        super.clearChanged();
+        ClockMetrics.INSTANCE.dispatch(System.nanoTime() - t0);
+    }
   }
 }
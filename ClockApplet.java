@@ -7,7 +7,10 @@ import java.util.logging.*;
 
 /** A "binary clock" applet.  This implementation creates an instance
  * of <code>Clock</code> with a timer, passes it to a graphical
- * component, and displays this component in the applet pane.
+ * component, and displays this component in the applet pane.  The
+ * applet reads parameters {@code nbdots} (number of bits), {@code
+ * width} (in pixels), {@code timer} (name of a timer class) and {@code
+ * period} (tick period, in milliseconds).
  *
  * @author  Michel Charpentier
  * @version 3.1, 02/12/13
@@ -29,14 +32,27 @@ public class ClockApplet extends JApplet {
           String nbdots = getParameter("nbdots");
           String width = getParameter("width");
           String timerClass = getParameter("timer");
+          String periodMs = getParameter("period");
           if (timerClass == null)
             timerClass = Clock.DEFAULT_TIMER_CLASS;
           if (nbdots != null)
             nbDots = Integer.parseInt(nbdots);
           if (width != null)
             w = Integer.parseInt(width);
+          long period = Clock.DEFAULT_PERIOD;
+          if (periodMs != null) {
+            try {
+              period = Long.parseLong(periodMs.trim());
+            } catch (NumberFormatException e) {
+              System.err.printf("cannot parse period '%s', using %d%n", periodMs, period);
+            }
+          }
+          if (period < 1) {
+            System.err.println("period is too small, using 1");
+            period = 1;
+          }
           try {
-            clock = new Clock(nbDots, timerClass);
+            clock = new Clock(nbDots, timerClass, period);
           } catch (IllegalArgumentException e) {
             System.err.printf("cannot create timer: %s%n", e.getMessage());
             clock = new Clock(nbDots);
@@ -51,9 +51,11 @@ public class ClockApplication {
   }
 
   /** Sets a handlers that Displays the state of the clock on stdout,
-   * for debugging
+   * for debugging.  Observers are notified on a separate thread so
+   * printing does not delay the clock.
    */
   private void debug () {
+    clock.setDispatcher(new ClockDispatcher());
     clock.addObserver(new java.util.Observer() {
         public void update (java.util.Observable o1, Object o2) {
           System.out.println(clock);
@@ -62,16 +64,19 @@ public class ClockApplication {
   }
 
   private static void usage () {
-    System.out.println("Usage: ClockApplication <#bits> <size> <timer impl>");
+    System.out.println("Usage: ClockApplication <#bits> <size> <timer impl> <period ms>");
     System.out.println("Defaults: ClockApplication 8 500 "+
-                       Clock.DEFAULT_TIMER_CLASS);
+                       Clock.DEFAULT_TIMER_CLASS+" "+Clock.DEFAULT_PERIOD);
+    System.out.println("Timers: "+
+                       String.join(" ", ClockTimerRegistry.getAvailableNames()));
   }
 
   /** Starts a binary clock frame.  The first command line parameter
    * is the number of bits (default 8); the second parameter is the
    * width of the clock in pixels (default 500).  The third parameter
    * is the name of a timer class (default "cs671.SimpleClockTimer").
-   * The clock is initially stopped.
+   * The fourth parameter is the tick period in milliseconds (default
+   * 1000).  The clock is initially stopped.
    *
    * @param args command line parameters
    */
@@ -79,11 +84,13 @@ public class ClockApplication {
     int n = 8;
     int size = 500;
     String t = "cs671.UtilClockTimer";//Clock.DEFAULT_TIMER_CLASS;
+    long period = Clock.DEFAULT_PERIOD;
     String p = null;
     try {
       if (args.length > 0) n = Integer.parseInt(p = args[0]);
       if (args.length > 1) size = Integer.parseInt(p = args[1]);
       if (args.length > 2) t = args[2];
+      if (args.length > 3) period = Long.parseLong(p = args[3]);
       if (n < 1) {
         System.err.println("not enough bits, using 1");
         n = 1;
@@ -92,8 +99,12 @@ public class ClockApplication {
         System.err.println("size is too small, using 150");
         size = 150;
       }
-      assert n >= 1; // so only t can be a problem
-      final ClockApplication app = new ClockApplication(new Clock(n, t), size);
+      if (period < 1) {
+        System.err.println("period is too small, using 1");
+        period = 1;
+      }
+      assert n >= 1 && period >= 1; // so only t can be a problem
+      final ClockApplication app = new ClockApplication(new Clock(n, t, period), size);
       javax.swing.SwingUtilities.invokeLater(new Runnable() {
           public void run () {
             app.init();
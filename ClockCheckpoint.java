@@ -0,0 +1,281 @@
+package cs671;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+
+/** Durable clock state.  A checkpoint is a memory-mapped file divided
+ * into a fixed number of slots, each holding the state of one clock:
+ * its value, direction and running status, and the time at which that
+ * state was saved.  Clocks are attached to slots; the state stored in
+ * a slot is restored when a clock is attached to it, and the states of
+ * all attached clocks are saved periodically by a background thread.
+ *
+ * <p> When a restored clock was running when it was saved, it is
+ * advanced by the number of ticks it would have made since then, so an
+ * active clock that is restarted after a crash or a shutdown shows the
+ * value it would have had if the process had never stopped (up to the
+ * saving period).
+ *
+ * <p> Saving a clock only copies its words into the mapped file,
+ * without allocating; the file is not forced to disk on each save, but
+ * only on {@link #flush} and {@link #close}.  The operating system
+ * writes the mapped pages back on its own, so the saved state
+ * survives a crash of the process (though not necessarily a crash of
+ * the machine).
+ *
+ * <p> File layout (little-endian):
+ * <pre>
+ *   header:  int magic, int version, int slot count, int max bits
+ *   slot:    two copies of a state
+ *   state:   long sequence, long timestamp (ms since the epoch),
+ *            int bits, byte direction, byte running, short unused,
+ *            long period (ns), long[(max bits + 63) / 64] words
+ * </pre>
+ * Each save overwrites the older copy of its slot and gives it a
+ * sequence number larger than that of the other copy.  The sequence
+ * number of a copy is odd while the copy is being written, so a copy
+ * torn by a crash is recognized, and the slot falls back to its other
+ * copy, i.e., to the previous save.
+ *
+ * <p> Instances of this class are thread-safe.
+ *
+ * @see Clock
+ */
+public class ClockCheckpoint implements Closeable {
+
+  /** Default time between two saves, in milliseconds */
+  public static final long DEFAULT_PERIOD = 1000L;
+
+  private static final int MAGIC = 0x434c4b31; // "CLK1"
+  private static final int VERSION = 3;
+  private static final int HEADER = 16;
+  private static final int SEQ = 0, TIME = 8, BITS = 16, DIR = 20, RUN = 21, PERIOD = 24, WORDS = 32;
+
+  private final int nbSlots;
+  private final int maxBits;
+  /** Size of one copy of a state */
+  private final int copySize;
+  private final MappedByteBuffer map;
+  /** Clock attached to each slot, or null */
+  private final Clock[] clocks;
+  /** Scratch space for the words of a clock */
+  private final long[] scratch;
+  private final Timer timer;
+  private boolean closed = false;
+
+  /** Opens a checkpoint file, saving every {@link #DEFAULT_PERIOD}
+   * milliseconds.
+   * @see #ClockCheckpoint(Path,int,int,long)
+   */
+  public ClockCheckpoint (Path file, int nbSlots, int maxBits) throws IOException {
+    this(file, nbSlots, maxBits, DEFAULT_PERIOD);
+  }
+
+  /** Opens a checkpoint file.  If the file does not exist or is empty,
+   * it is created with all slots empty.  Otherwise, it must have been
+   * created with the same number of slots and maximum clock size.
+   *
+   * @param file the checkpoint file
+   * @param nbSlots the number of slots, i.e., the maximum number of
+   * clocks that can be saved
+   * @param maxBits the maximum size of a saved clock
+   * @param period time between two saves, in milliseconds
+   * @throws IOException if the file cannot be opened or mapped
+   * @throws IllegalArgumentException if a parameter is not positive, if
+   * the file is too large to be mapped or if the existing file has a
+   * different layout
+   */
+  public ClockCheckpoint (Path file, int nbSlots, int maxBits, long period) throws IOException {
+    if(nbSlots < 1 || maxBits < 1) { throw new IllegalArgumentException("nbSlots and maxBits must be greater then zero"); }
+    if(period <= 0) { throw new IllegalArgumentException("Period is not positive"); }
+    this.nbSlots = nbSlots;
+    this.maxBits = maxBits;
+    copySize = WORDS + 8 * BitWords.wordCount(maxBits);
+    long length = HEADER + (long)nbSlots * 2 * copySize;
+    if(length > Integer.MAX_VALUE) { throw new IllegalArgumentException("Checkpoint is too large: " + length + " bytes"); }
+    try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE,
+                                           StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        map = ch.map(FileChannel.MapMode.READ_WRITE, 0, length);
+    }
+    map.order(ByteOrder.LITTLE_ENDIAN);
+    if(map.getInt(0) == 0) {
+        map.putInt(4, VERSION);
+        map.putInt(8, nbSlots);
+        map.putInt(12, maxBits);
+        map.putInt(0, MAGIC);
+    }
+    else if(map.getInt(0) != MAGIC || map.getInt(4) != VERSION
+            || map.getInt(8) != nbSlots || map.getInt(12) != maxBits) {
+        throw new IllegalArgumentException("Checkpoint file " + file + " has a different layout");
+    }
+    clocks = new Clock[nbSlots];
+    scratch = new long[BitWords.wordCount(maxBits)];
+    timer = new Timer("ClockCheckpoint", true);
+    timer.scheduleAtFixedRate(new TimerTask() {
+        public void run () {
+          try {
+              save();
+          } catch (RuntimeException ex) {
+              System.err.printf("checkpoint failed: %s%n", ex);
+          }
+        }
+      }, period, period);
+  }
+
+  private int offset (int slot) {
+    if((slot < 0) || (slot >= nbSlots)) { throw new IndexOutOfBoundsException("No such slot (" + slot + ") exists"); }
+    return HEADER + slot * 2 * copySize;
+  }
+
+  /** A copy holds a complete state iff its sequence number is even
+   * (not being written) and not 0 (written at least once).
+   */
+  private static boolean isValid (long seq) {
+    return seq != 0L && (seq & 1L) == 0L;
+  }
+
+  /** The last complete state saved in the slot at {@code off}.
+   * @return the offset of the copy, or -1 if neither copy is complete
+   */
+  private int latest (int off) {
+    long a = map.getLong(off + SEQ), b = map.getLong(off + copySize + SEQ);
+    if(isValid(a) && (!isValid(b) || a > b)) { return off; }
+    if(isValid(b)) { return off + copySize; }
+    return -1;
+  }
+
+  /** Attaches a clock to a slot.  If the slot holds the saved state of
+   * a clock of the same size, the clock takes its value and direction;
+   * if the saved clock was running, the clock is also advanced by the
+   * number of ticks elapsed since the state was saved, at the period it
+   * had then.  The clock is
+   * not started.  From now on, the state of the clock is saved in this
+   * slot.
+   *
+   * @param slot slot number
+   * @param clock the clock
+   * @return true iff a saved state was restored
+   * @throws IndexOutOfBoundsException if no such slot exists
+   * @throws IllegalArgumentException if the clock is larger than the
+   * maximum size of the checkpoint
+   * @throws IllegalStateException if the slot already has a clock or if
+   * the checkpoint is closed
+   */
+  public synchronized boolean attach (int slot, Clock clock) {
+    int off = offset(slot);
+    if(clock.size() > maxBits) { throw new IllegalArgumentException("Clock has more than " + maxBits + " bits"); }
+    if(closed) { throw new IllegalStateException("Checkpoint is closed"); }
+    if(clocks[slot] != null) { throw new IllegalStateException("Slot " + slot + " already has a clock"); }
+    boolean restored = restore(off, clock);
+    clocks[slot] = clock;
+    write(off, clock);
+    return restored;
+  }
+
+  /** Detaches a clock from its slot.  The slot keeps the last saved
+   * state of the clock.
+   * @param clock the clock
+   * @return true iff the clock was attached
+   */
+  public synchronized boolean detach (Clock clock) {
+    for(int i = 0; i < nbSlots; i++) {
+      if(clocks[i] == clock) {
+        if(!closed) { write(offset(i), clock); }
+        clocks[i] = null;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Whether the clock saved in a slot was running, e.g., to decide
+   * whether to start a clock after attaching it.  Attaching a clock
+   * saves its own state, so this should be asked before.
+   * @param slot slot number
+   * @return true iff the slot holds a valid state of a running clock
+   * @throws IndexOutOfBoundsException if no such slot exists
+   */
+  public synchronized boolean wasRunning (int slot) {
+    int off = latest(offset(slot));
+    return off >= 0 && map.get(off + RUN) != 0;
+  }
+
+  private boolean restore (int base, Clock clock) {
+    int off = latest(base);
+    if(off < 0 || map.getInt(off + BITS) != clock.size()) { return false; }
+    int len = BitWords.wordCount(clock.size());
+    for(int i = 0; i < len; i++) {
+      scratch[i] = map.getLong(off + WORDS + 8 * i);
+    }
+    clock.setBits(scratch);
+    clock.setDirection(map.get(off + DIR) == 0 ? Clock.Direction.FORWARD : Clock.Direction.BACKWARD);
+    if(map.get(off + RUN) != 0) {
+      long elapsed = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - map.getLong(off + TIME));
+      long p = map.getLong(off + PERIOD);
+      if(elapsed > 0 && p > 0) { clock.advance(BigInteger.valueOf(elapsed / p)); }
+    }
+    return true;
+  }
+
+  /** Saves the state of a clock in the slot at {@code base}, over the
+   * copy that does not hold the last complete state.
+   */
+  private void write (int base, Clock clock) {
+    int len = clock.getBits(scratch);
+    Clock.Direction d = clock.getDirection();
+    int off = (latest(base) == base) ? base + copySize : base;
+    // odd, and larger than both copies even if one of them is torn
+    long seq = Math.max(map.getLong(base + SEQ), map.getLong(base + copySize + SEQ)) | 1L;
+    map.putLong(off + SEQ, seq);
+    map.putLong(off + TIME, System.currentTimeMillis());
+    map.putInt(off + BITS, clock.size());
+    map.put(off + DIR, (byte)(d == Clock.Direction.FORWARD ? 0 : 1));
+    map.put(off + RUN, (byte)(clock.isTicking() ? 1 : 0));
+    map.putLong(off + PERIOD, clock.getPeriod(TimeUnit.NANOSECONDS));
+    for(int i = 0; i < len; i++) {
+      map.putLong(off + WORDS + 8 * i, scratch[i]);
+    }
+    map.putLong(off + SEQ, seq + 1L);
+  }
+
+  /** Saves the state of all attached clocks now.  This does not force
+   * the file to disk.
+   * @throws IllegalStateException if the checkpoint is closed
+   */
+  public synchronized void save () {
+    if(closed) { throw new IllegalStateException("Checkpoint is closed"); }
+    for(int i = 0; i < nbSlots; i++) {
+      if(clocks[i] != null) { write(offset(i), clocks[i]); }
+    }
+  }
+
+  /** Saves the state of all attached clocks and forces the file to
+   * disk.
+   * @throws IllegalStateException if the checkpoint is closed
+   */
+  public synchronized void flush () {
+    save();
+    map.force();
+  }
+
+  /** Saves the state of all attached clocks, forces the file to disk
+   * and stops saving.  Closing a closed checkpoint has no effect.
+   */
+  @Override public synchronized void close () {
+    if(closed) { return; }
+    timer.cancel();
+    flush();
+    closed = true;
+    Arrays.fill(clocks, null);
+  }
+}
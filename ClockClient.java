@@ -0,0 +1,150 @@
+package cs671;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Subscriber of a {@link ClockServer}.  A client mirrors the clocks
+ * published by a server into local passive clocks, which are kept up
+ * to date by a background thread as changes arrive.  Mirrors are
+ * ordinary clocks: observers can be added to them to be notified of
+ * remote changes (on the client thread), like for any other clock.
+ * Clocks of at most 64 bits are mirrored by {@link AtomicClock}s.
+ *
+ * <p> Mirrors should not be changed locally, since changes from the
+ * server are applied relative to the previous value.
+ *
+ * @see ClockServer
+ */
+public class ClockClient implements Closeable {
+
+  private final Socket socket;
+  private final DataInputStream in;
+  private final Thread thread;
+  private volatile boolean closed = false;
+
+  /** Mirrors, by clock id */
+  private final ConcurrentHashMap<Integer,Clock> clocks = new ConcurrentHashMap<Integer,Clock>();
+  /** Sequence number of the last message about each clock */
+  private final ConcurrentHashMap<Integer,Long> seqs = new ConcurrentHashMap<Integer,Long>();
+
+  /** Connects to a server.
+   * @param host the server host
+   * @param port the server port
+   * @throws IOException if the connection fails
+   */
+  public ClockClient (String host, int port) throws IOException {
+    socket = new Socket(host, port);
+    socket.setTcpNoDelay(true);
+    in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+    thread = new Thread(new Runnable() {
+        public void run () {
+          receive();
+        }
+      }, "ClockClient");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /** The mirror of a remote clock.
+   * @param id identifier of the clock on the server
+   * @return the local copy of the clock, or null if the server has not
+   * published such a clock (yet)
+   */
+  public Clock getClock (int id) {
+    return clocks.get(id);
+  }
+
+  /** Identifiers of the mirrored clocks.
+   * @return the identifiers of all the clocks currently mirrored
+   */
+  public Set<Integer> getClockIds () {
+    return Collections.unmodifiableSet(clocks.keySet());
+  }
+
+  /** Sequence number of the last change received for a clock.
+   * @param id identifier of the clock on the server
+   * @return the sequence number, or -1 if the clock is not mirrored
+   */
+  public long getSequence (int id) {
+    Long s = seqs.get(id);
+    return (s == null) ? -1L : s;
+  }
+
+  /** Whether the client is still receiving changes.
+   * @return false once the connection is closed or lost
+   */
+  public boolean isConnected () {
+    return thread.isAlive();
+  }
+
+  private void receive () {
+    long[] words = new long[0];
+    try {
+        while(true) {
+          byte type = in.readByte();
+          int id = in.readInt();
+          if(type == ClockServer.REMOVED) {
+              clocks.remove(id);
+              seqs.remove(id);
+              continue;
+          }
+          long seq = in.readLong();
+          if(type == ClockServer.SNAPSHOT) {
+              int nbBits = in.readInt();
+              Clock.Direction dir = (in.readByte() == 0) ? Clock.Direction.FORWARD : Clock.Direction.BACKWARD;
+              int n = in.readInt();
+              if(n != BitWords.wordCount(nbBits)) { throw new IOException("Malformed snapshot of clock " + id); }
+              if(words.length < n) { words = new long[n]; }
+              for(int i = 0; i < n; i++) { words[i] = in.readLong(); }
+              Clock c = clocks.get(id);
+              if(c == null || c.size() != nbBits) {
+                  c = (nbBits <= 64) ? new AtomicClock(nbBits) : new Clock(nbBits);
+              }
+              c.setDirection(dir);
+              c.setBits(words);
+              seqs.put(id, seq);
+              clocks.put(id, c);
+          }
+          else if(type == ClockServer.DELTA) {
+              int from = in.readInt();
+              int n = in.readInt();
+              if(n < 0 || n > (ClockServer.BUFFER_SIZE >>> 3)) { throw new IOException("Malformed change of clock " + id); }
+              if(words.length < n) { words = new long[n]; }
+              for(int i = 0; i < n; i++) { words[i] = in.readLong(); }
+              Clock c = clocks.get(id);
+              if(c == null) { continue; } // removed meanwhile
+              c.xorWords(from, words, 0, n);
+              seqs.put(id, seq);
+          }
+          else {
+              throw new IOException("Unknown message type " + type);
+          }
+        }
+    } catch (EOFException ex) {
+        // server closed the connection
+    } catch (IOException | RuntimeException ex) {
+        if(!closed) { System.err.printf("clock client failed: %s%n", ex); }
+    } finally {
+        try {
+            socket.close();
+        } catch (IOException ex) {
+        }
+    }
+  }
+
+  /** Disconnects from the server.  Mirrors keep their last value. */
+  @Override public void close () {
+    closed = true;
+    try {
+        socket.close();
+    } catch (IOException ex) {
+    }
+  }
+}
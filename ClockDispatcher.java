@@ -0,0 +1,157 @@
+package cs671;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Asynchronous notification of clock observers.  A dispatcher owns
+ * a daemon thread that notifies the observers of the clocks attached
+ * to it (see {@link Clock#setDispatcher}).  Clocks only post their
+ * changes: posting never runs observer code and never waits for it.
+ *
+ * <p> Changes are coalesced.  While a change of a clock is waiting to
+ * be delivered, further changes of the same clock are merged into it,
+ * so observers see the latest state of the clock and, as changed
+ * bits, every bit that differs from the state they last saw.  Changes
+ * are merged in the order in which they were made, which is not
+ * always the order in which they are posted (see {@link ClockEvent}).
+ * Each clock has at most one pending event, whatever the rate of
+ * changes.
+ *
+ * <p> A dispatcher can serve any number of clocks.  Observers of all
+ * those clocks are notified on the same thread, one at a time.  The
+ * number of coalesced changes is also reported by {@link
+ * ClockMetrics#getCoalescedChanges}.
+ *
+ * @see ClockEvent
+ */
+public class ClockDispatcher {
+
+  /** Clocks with a pending event, in order of their first change */
+  private final LinkedBlockingQueue<Clock> ready = new LinkedBlockingQueue<Clock>();
+  private final Thread thread;
+  private volatile boolean shutdown = false;
+  /** Orders shutdown with clocks being queued */
+  private final Object lock = new Object();
+
+  private final LongAdder posted = new LongAdder();
+  private final LongAdder delivered = new LongAdder();
+  private final LongAdder coalesced = new LongAdder();
+
+  /** Creates a dispatcher and starts its thread. */
+  public ClockDispatcher () {
+    thread = new Thread(new Runnable() {
+        public void run () {
+          dispatch();
+        }
+      }, "ClockDispatcher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /** Posts a change of a clock.  Called by clocks, on the thread that
+   * changed them.
+   */
+  void post (Clock c, ClockEvent e) {
+    posted.increment();
+    AtomicReference<ClockEvent> slot = c.pending;
+    ClockEvent prev;
+    do {
+        prev = slot.get();
+    } while(!slot.compareAndSet(prev, (prev == null) ? e : ClockEvent.merge(prev, e)));
+    if(prev != null) {
+        coalesced.increment();
+        ClockMetrics.INSTANCE.coalesce();
+        return;
+    }
+    synchronized(lock) {
+        if(!shutdown) {
+            ready.add(c);
+            return;
+        }
+    }
+    release(c);
+  }
+
+  /** Takes back the pending event of a clock that this dispatcher will
+   * not deliver from its thread.  The event is handed over to the
+   * current dispatcher of the clock or, if the clock is still attached
+   * to this dispatcher, delivered on the calling thread.  Either way,
+   * the pending slot is emptied, otherwise every later change of the
+   * clock would be merged into it and lost.
+   */
+  private void release (Clock c) {
+    ClockEvent e = c.pending.getAndSet(null);
+    if(e == null) { return; }
+    if(c.getDispatcher() != this) {
+        c.updateObs(e);
+        return;
+    }
+    try {
+        c.deliver(e);
+    } catch (RuntimeException ex) {
+        System.err.printf("clock observer failed: %s%n", ex);
+    }
+    delivered.increment();
+  }
+
+  private void dispatch () {
+    while(!shutdown) {
+      Clock c;
+      try {
+          c = ready.take();
+      } catch (InterruptedException e) {
+          continue;
+      }
+      ClockEvent e = c.pending.getAndSet(null);
+      if(e == null) { continue; }
+      try {
+          c.deliver(e);
+      } catch (RuntimeException ex) {
+          System.err.printf("clock observer failed: %s%n", ex);
+      }
+      delivered.increment();
+    }
+  }
+
+  /** Stops the dispatcher thread.  Pending changes of clocks that were
+   * moved to another dispatcher are handed over to it.  Pending changes
+   * of clocks still attached to this dispatcher are delivered by the
+   * calling thread before this method returns, and their later changes
+   * are delivered synchronously, by the threads that make them, until
+   * the clocks are given another dispatcher (see {@link
+   * Clock#setDispatcher}).
+   */
+  public void shutdown () {
+    synchronized(lock) {
+        shutdown = true;
+    }
+    thread.interrupt();
+    Clock c;
+    while((c = ready.poll()) != null) {
+        release(c);
+    }
+  }
+
+  /** Number of changes posted by clocks.
+   * @return the number of state changes handed to this dispatcher
+   */
+  public long getPostedCount () {
+    return posted.sum();
+  }
+
+  /** Number of notifications.
+   * @return the number of events delivered to observers
+   */
+  public long getDeliveredCount () {
+    return delivered.sum();
+  }
+
+  /** Number of changes merged into a pending event instead of being
+   * delivered on their own.
+   * @return the number of coalesced notifications
+   */
+  public long getCoalescedCount () {
+    return coalesced.sum();
+  }
+}
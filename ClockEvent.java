@@ -0,0 +1,244 @@
+package cs671;
+
+/** A clock state change.  Clocks pass an instance of this class as
+ * the argument of {@code notifyObservers}, so observers receive the
+ * new value of the clock together with the set of bits that changed,
+ * and can update themselves in time proportional to the number of
+ * changed bits instead of re-reading every bit from the clock.
+ *
+ * <p> Events are immutable: the value is a copy taken while the clock
+ * lock was held.  The changed-bit mask only covers the range of words
+ * that actually changed, so building an event for a step costs one
+ * word per carry, plus the copy of the value.
+ *
+ * <p> Events are numbered in the order of the changes, and observers
+ * are notified in that order, even when the changes are made by
+ * different threads: an event that is overtaken by a newer one is
+ * delivered as a status event that reports the newer value, without
+ * changed bits.
+ *
+ * @see Clock
+ * @see java.util.Observer#update
+ */
+public final class ClockEvent {
+
+  private static final long[] NONE = new long[0];
+
+  private final Clock clock;
+  /** Position of the change among those of the clock, 0 if unordered */
+  final long seq;
+  /** Number of the first change covered, lower than {@code seq} for
+   * merged events
+   */
+  final long since;
+  private final int nbBits;
+  /** New value of the clock, packed as in {@code Clock} */
+  private final long[] value;
+  /** Index of the first word covered by {@code changed} */
+  private final int from;
+  /** Changed bits of words {@code from}, {@code from+1}, ... */
+  private final long[] changed;
+
+  /** Builds an event.  Arrays are not copied.
+   *
+   * @param clock the clock that changed
+   * @param seq the number of the change, or 0 if changes of the clock
+   * are not numbered
+   * @param value the new value of the clock
+   * @param from index of the first word of the changed-bit mask
+   * @param changed changed-bit mask, starting at word {@code from}
+   */
+  ClockEvent (Clock clock, long seq, long[] value, int from, long[] changed) {
+    this(clock, seq, seq, value, from, changed);
+  }
+
+  private ClockEvent (Clock clock, long since, long seq, long[] value, int from, long[] changed) {
+    this.clock = clock;
+    this.since = since;
+    this.seq = seq;
+    this.nbBits = clock.size();
+    this.value = value;
+    this.from = from;
+    this.changed = changed;
+  }
+
+  /** Builds an event for a clock state change that did not change any
+   * bit (e.g., a clock being stopped or destroyed).
+   */
+  ClockEvent (Clock clock, long seq, long[] value) {
+    this(clock, seq, value, 0, NONE);
+  }
+
+  /** Builds the event for a change from one value to another.  The
+   * changed-bit mask covers the range of words that differ.
+   *
+   * @param clock the clock that changed
+   * @param seq the number of the change
+   * @param before the value before the change
+   * @param after the value after the change
+   * @return the event, which shares {@code after}
+   */
+  static ClockEvent between (Clock clock, long seq, long[] before, long[] after) {
+    int first = 0, last = after.length - 1;
+    while(first <= last && before[first] == after[first]) { first++; }
+    if(first > last) { return new ClockEvent(clock, seq, after); }
+    while(before[last] == after[last]) { last--; }
+    long[] mask = new long[last - first + 1];
+    for(int i = first; i <= last; i++) {
+      mask[i - first] = before[i] ^ after[i];
+    }
+    return new ClockEvent(clock, seq, after, first, mask);
+  }
+
+  /** The value of the clock before the change.
+   * @return a new array
+   */
+  long[] before () {
+    long[] v = value.clone();
+    for(int i = 0; i < changed.length; i++) {
+      v[from + i] ^= changed[i];
+    }
+    return v;
+  }
+
+  /** The value of the clock after the change, not copied. */
+  long[] value () {
+    return value;
+  }
+
+  /** The clock that changed.
+   * @return the source of this event
+   */
+  public Clock getClock () {
+    return clock;
+  }
+
+  /** Clock size.
+   * @return the number of bits in the clock
+   */
+  public int size () {
+    return nbBits;
+  }
+
+  /** The value of bit number <code>n</code> after the change.
+   *
+   * @param n bit number
+   * @return boolean value of that bit.
+   * @throws IndexOutOfBoundsException if no such bit exists
+   */
+  public boolean getBit (int n) {
+    if((n < 0) || (n > (nbBits-1))) { throw new IndexOutOfBoundsException("No such bit (" + n + ") exists"); }
+    return (value[n >>> 6] & (1L << n)) != 0L;
+  }
+
+  /** All bit values after the change, as a long.
+   * @return boolean value for each bit
+   * @throws IllegalStateException if the clock has more than 64 bits
+   * <em>and</em> at least one bit beyond 63 is set
+   * @see Clock#getLongValue
+   */
+  public long getLongValue () {
+    if(BitWords.anySet(value, 1, value.length)) { throw new IllegalStateException("Bits are set beyond bit 63"); }
+    return value[0];
+  }
+
+  /** Whether bit number <code>n</code> changed.
+   *
+   * @param n bit number
+   * @return true iff the bit has a different value than before
+   * @throws IndexOutOfBoundsException if no such bit exists
+   */
+  public boolean isChanged (int n) {
+    if((n < 0) || (n > (nbBits-1))) { throw new IndexOutOfBoundsException("No such bit (" + n + ") exists"); }
+    int w = (n >>> 6) - from;
+    return w >= 0 && w < changed.length && (changed[w] & (1L << n)) != 0L;
+  }
+
+  /** Finds the next changed bit.  All changed bits can be visited
+   * with {@code for (int i = e.nextChangedBit(0); i >= 0; i =
+   * e.nextChangedBit(i + 1))}.
+   *
+   * @param n bit number where to start looking
+   * @return the smallest changed bit number that is at least
+   * <code>n</code>, or -1 if there is none
+   */
+  public int nextChangedBit (int n) {
+    if(n < 0) { n = 0; }
+    int w = Math.max((n >>> 6) - from, 0);
+    if(w >= changed.length || n >= nbBits) { return -1; }
+    long word = changed[w];
+    if(w + from == (n >>> 6)) { word &= -1L << n; }
+    while(true) {
+      if(word != 0L) {
+        return ((w + from) << 6) + Long.numberOfTrailingZeros(word);
+      }
+      if(++w == changed.length) { return -1; }
+      word = changed[w];
+    }
+  }
+
+  /** Number of bits that changed.
+   * @return the number of bits that have a different value than before
+   */
+  public int changedCount () {
+    int count = 0;
+    for(long word : changed) {
+      count += Long.bitCount(word);
+    }
+    return count;
+  }
+
+  /** Whether any bit changed.
+   * @return false if the event only reports a change of the clock
+   * status (e.g., the clock was stopped)
+   */
+  public boolean hasChanges () {
+    for(long word : changed) {
+      if(word != 0L) { return true; }
+    }
+    return false;
+  }
+
+  /** Combines two successive events of the same clock into one.  The
+   * result has the value of the newer event and, as its changed bits,
+   * the bits whose value differs between the state before {@code
+   * older} and the state after {@code newer}.  Since threads post
+   * their changes after releasing the clock lock, {@code newer} may
+   * be the older change: events are ordered by number, whatever the
+   * order of the arguments, and unnumbered events in the order given.
+   *
+   * @param older the first change
+   * @param newer the change that followed it
+   * @return a single event equivalent to both
+   */
+  static ClockEvent merge (ClockEvent older, ClockEvent newer) {
+    if(newer.seq < older.seq) {
+      ClockEvent e = older;
+      older = newer;
+      newer = e;
+    }
+    if(older.changed.length == 0) {
+      return new ClockEvent(newer.clock, Math.min(older.since, newer.since), newer.seq,
+                            newer.value, newer.from, newer.changed);
+    }
+    if(newer.changed.length == 0) {
+      return new ClockEvent(newer.clock, Math.min(older.since, newer.since), newer.seq,
+                            newer.value, older.from, older.changed);
+    }
+    int from = Math.min(older.from, newer.from);
+    int to = Math.max(older.from + older.changed.length, newer.from + newer.changed.length);
+    long[] mask = new long[to - from];
+    for(int i = 0; i < older.changed.length; i++) {
+      mask[older.from - from + i] = older.changed[i];
+    }
+    for(int i = 0; i < newer.changed.length; i++) {
+      mask[newer.from - from + i] ^= newer.changed[i];
+    }
+    return new ClockEvent(newer.clock, Math.min(older.since, newer.since), newer.seq,
+                          newer.value, from, mask);
+  }
+
+  @Override public String toString () {
+    return "ClockEvent[" + changedCount() + " of " + nbBits + " bits changed]";
+  }
+}
@@ -0,0 +1,472 @@
+package cs671;
+
+import java.util.Arrays;
+
+/** Large numbers of passive clocks of the same size.  A fleet stores
+ * the bits of all its clocks in a single {@code long} array, one
+ * clock after the other, and their directions in a bit set, so a
+ * clock costs its words and one bit instead of a whole {@link Clock}
+ * object with its observers, lock and timer.
+ *
+ * <p> Individual clocks are accessed through {@link View}s, small
+ * flyweight objects that only hold an index and offer the passive part
+ * of the {@code Clock} interface.  Views can be created and dropped at
+ * will: all the state lives in the fleet.  Bulk operations ({@link
+ * #stepAll}, {@link #advanceAll}, {@link #setAll(long)}, {@link
+ * #clearAll}...) update every clock in a single pass over the array.
+ *
+ * <p> Fleet clocks have no timers and no observers.  Each clock is
+ * stored in a whole number of 64-bit words, so memory per clock is
+ * {@code nbBits/8} bytes rounded up to the next multiple of 8.
+ *
+ * <p> Instances of this class are thread-safe.  Clocks are guarded by
+ * striped locks, one per block of {@value #BLOCK} consecutive clocks,
+ * so threads working on different parts of a fleet do not contend and
+ * a bulk operation acquires a lock once per block.
+ *
+ * @see Clock
+ */
+public class ClockFleet {
+
+  /** Number of consecutive clocks guarded by the same lock.  A
+   * multiple of 64, so that direction words are not shared among
+   * blocks.
+   */
+  static final int BLOCK = 1024;
+
+  private final int count;
+  private final int nbBits;
+  /** Number of words of each clock */
+  private final int stride;
+  /** Mask of the valid bits in the last word of each clock */
+  private final long lastMask;
+  /** Bits of all clocks; clock {@code i} starts at word {@code i * stride} */
+  private final long[] words;
+  /** Bit {@code i} is set iff clock {@code i} goes backward */
+  private final long[] backward;
+  /** Lock of each block of clocks */
+  private final Object[] locks;
+
+  /** Creates a fleet of clocks.  Initially, all bits of all clocks are
+   * off (false) and all clocks go forward.
+   *
+   * @param count the number of clocks
+   * @param nbBits the number of bits of each clock
+   * @throws IllegalArgumentException if <code>count &lt; 0</code>,
+   * <code>nbBits &lt; 1</code> or if the fleet does not fit in a single
+   * array
+   */
+  public ClockFleet (int count, int nbBits) {
+    if(count < 0) { throw new IllegalArgumentException("count is negative"); }
+    if(nbBits < 1) { throw new IllegalArgumentException("nbBits must be greater then zero"); }
+    this.count = count;
+    this.nbBits = nbBits;
+    stride = BitWords.wordCount(nbBits);
+    lastMask = BitWords.lastMask(nbBits);
+    long total = (long)count * stride;
+    if(total > Integer.MAX_VALUE - 8) {
+        throw new IllegalArgumentException("Fleet is too large: " + total + " words");
+    }
+    words = new long[(int)total];
+    backward = new long[(count + 63) >>> 6];
+    locks = new Object[(count + BLOCK - 1) / BLOCK];
+    for(int b = 0; b < locks.length; b++) {
+        locks[b] = new Object();
+    }
+  }
+
+  /** Number of clocks.
+   * @return the number of clocks in the fleet
+   */
+  public int count () {
+    return count;
+  }
+
+  /** Clock size.
+   * @return the number of bits of each clock
+   */
+  public int clockSize () {
+    return nbBits;
+  }
+
+  /** A view of clock number {@code i}.  Views are not cached; two
+   * views of the same clock are equal.
+   *
+   * @param i clock number
+   * @return a view of that clock
+   * @throws IndexOutOfBoundsException if no such clock exists
+   */
+  public View get (int i) {
+    checkIndex(i);
+    return new View(i);
+  }
+
+  private void checkIndex (int i) {
+    if((i < 0) || (i >= count)) { throw new IndexOutOfBoundsException("No such clock (" + i + ") exists"); }
+  }
+
+  private Object lockOf (int i) {
+    return locks[i / BLOCK];
+  }
+
+  private boolean isBackward (int i) {
+    return (backward[i >>> 6] & (1L << i)) != 0L;
+  }
+
+  /** Steps every clock, each in its own direction.
+   * @see Clock#step
+   */
+  public void stepAll () {
+    for(int b = 0; b < locks.length; b++) {
+      int from = b * BLOCK, to = Math.min(count, from + BLOCK);
+      synchronized(locks[b]) {
+        if(stride == 1) {
+            for(int i = from; i < to; i++) {
+                long d = isBackward(i) ? -1L : 1L;
+                words[i] = (words[i] + d) & lastMask;
+            }
+        }
+        else {
+            for(int i = from; i < to; i++) {
+                if(isBackward(i)) {
+                    BitWords.decrement(words, i * stride, stride, lastMask);
+                }
+                else {
+                    BitWords.increment(words, i * stride, stride, lastMask);
+                }
+            }
+        }
+      }
+    }
+  }
+
+  /** Advances every clock by {@code n} steps, each in its own
+   * direction.
+   * @param n number of steps
+   * @see Clock#advance(long)
+   */
+  public void advanceAll (long n) {
+    if(n == 0L) { return; }
+    for(int b = 0; b < locks.length; b++) {
+      int from = b * BLOCK, to = Math.min(count, from + BLOCK);
+      synchronized(locks[b]) {
+        for(int i = from; i < to; i++) {
+            add(i, n);
+        }
+      }
+    }
+  }
+
+  /** Adds {@code n} steps to clock {@code i}, in its direction.  Must
+   * be called while owning the lock of the clock.
+   */
+  private void add (int i, long n) {
+    if(isBackward(i)) {
+        BitWords.add(words, i * stride, stride, lastMask, ~n, ~(n >> 63), 1L);
+    }
+    else {
+        BitWords.add(words, i * stride, stride, lastMask, n, n >> 63, 0L);
+    }
+  }
+
+  /** Resets every clock.  All bits are set to zero. */
+  public void clearAll () {
+    for(int b = 0; b < locks.length; b++) {
+      int from = b * BLOCK, to = Math.min(count, from + BLOCK);
+      synchronized(locks[b]) {
+        Arrays.fill(words, from * stride, to * stride, 0L);
+      }
+    }
+  }
+
+  /** Sets every clock to the same value.
+   * @param v value for each bit of the clocks
+   * @throws IndexOutOfBoundsException if <code>v</code> has a bit set
+   * to true beyond the clocks' capacity
+   * @see Clock#setLongValue
+   */
+  public void setAll (long v) {
+    if(nbBits < 63 && v > lastMask) { throw new IndexOutOfBoundsException("Value is " +
+                            "beyond clock capacity"); }
+    long low = (stride == 1) ? v & lastMask : v;
+    for(int b = 0; b < locks.length; b++) {
+      int from = b * BLOCK, to = Math.min(count, from + BLOCK);
+      synchronized(locks[b]) {
+        for(int i = from; i < to; i++) {
+            int off = i * stride;
+            words[off] = low;
+            Arrays.fill(words, off + 1, off + stride, 0L);
+        }
+      }
+    }
+  }
+
+  /** Sets every clock to the same value.
+   * @param v boolean value for each bit of the clocks
+   * @throws IllegalArgumentException if the size of the array is
+   * different from the number of bits of the clocks
+   * @see Clock#setValue
+   */
+  public void setAll (boolean[] v) {
+    long[] value = pack(v);
+    for(int b = 0; b < locks.length; b++) {
+      int from = b * BLOCK, to = Math.min(count, from + BLOCK);
+      synchronized(locks[b]) {
+        for(int i = from; i < to; i++) {
+            System.arraycopy(value, 0, words, i * stride, stride);
+        }
+      }
+    }
+  }
+
+  /** Sets the direction of every clock.
+   * @param d the new direction
+   */
+  public void setDirectionAll (Clock.Direction d) {
+    long fill = (d == Clock.Direction.BACKWARD) ? -1L : 0L;
+    for(int b = 0; b < locks.length; b++) {
+      int from = b * BLOCK, to = Math.min(count, from + BLOCK);
+      synchronized(locks[b]) {
+        // from is a multiple of 64; bits past count in the last word stay clear
+        Arrays.fill(backward, from >>> 6, to >>> 6, fill);
+        if((to & 63) != 0) {
+            long m = (1L << to) - 1L;
+            backward[to >>> 6] = (backward[to >>> 6] & ~m) | (fill & m);
+        }
+      }
+    }
+  }
+
+  private long[] pack (boolean[] v) {
+    if(v.length != nbBits) {
+        throw new IllegalArgumentException("Size of array is differnt from the"
+               + " number of bits int the clock"); }
+    long[] value = new long[stride];
+    for(int i = 0; i < nbBits; i++) {
+        if(v[i]) { value[i >>> 6] |= 1L << i; }
+    }
+    return value;
+  }
+
+  /** A clock of a fleet.  Views behave like passive {@link Clock}s
+   * that have no observers: every method has the same meaning as the
+   * {@code Clock} method of the same name, but the state belongs to
+   * the fleet.  Views are {@link BinaryClock}s, so they can be used
+   * wherever a clock is only read or set, e.g., by {@link
+   * ClockRenderer#render(BinaryClock)}, but they are not {@code Clock}
+   * objects.  A view only holds the number of its clock.
+   */
+  public final class View implements BinaryClock {
+
+    private final int index;
+
+    View (int index) {
+      this.index = index;
+    }
+
+    /** The fleet of this clock.
+     * @return the fleet that holds the state of the clock
+     */
+    public ClockFleet getFleet () {
+      return ClockFleet.this;
+    }
+
+    /** Clock number.
+     * @return the index of this clock in its fleet
+     */
+    public int getIndex () {
+      return index;
+    }
+
+    /** Clock size.
+     * @return the number of bits in the clock
+     */
+    public int size () {
+      return nbBits;
+    }
+
+    /** Fleet clocks are passive.
+     * @return false
+     */
+    public boolean isTicking () {
+      return false;
+    }
+
+    private int word (int n) {
+      if((n < 0) || (n > (nbBits-1))) { throw new IndexOutOfBoundsException("No such bit (" + n + ") exists"); }
+      return index * stride + (n >>> 6);
+    }
+
+    /** The value of bit number <code>n</code>.
+     * @see Clock#getBit
+     */
+    public boolean getBit (int n) {
+      int w = word(n);
+      synchronized(lockOf(index)) {
+        return (words[w] & (1L << n)) != 0L;
+      }
+    }
+
+    /** Sets bit number <code>n</code> to true.
+     * @see Clock#setBit
+     */
+    public boolean setBit (int n) {
+      int w = word(n);
+      synchronized(lockOf(index)) {
+        boolean ret = (words[w] & (1L << n)) != 0L;
+        words[w] |= 1L << n;
+        return ret;
+      }
+    }
+
+    /** Sets bit number <code>n</code> to false.
+     * @see Clock#clearBit
+     */
+    public boolean clearBit (int n) {
+      int w = word(n);
+      synchronized(lockOf(index)) {
+        boolean ret = (words[w] & (1L << n)) != 0L;
+        words[w] &= ~(1L << n);
+        return ret;
+      }
+    }
+
+    /** Sets bit number <code>n</code> to its next value.
+     * @see Clock#nextBit
+     */
+    public boolean nextBit (int n) {
+      int w = word(n);
+      synchronized(lockOf(index)) {
+        boolean ret = (words[w] & (1L << n)) != 0L;
+        words[w] ^= 1L << n;
+        return ret;
+      }
+    }
+
+    /** Steps the clock.
+     * @see Clock#step
+     */
+    public void step () {
+      synchronized(lockOf(index)) {
+        if(isBackward(index)) {
+            BitWords.decrement(words, index * stride, stride, lastMask);
+        }
+        else {
+            BitWords.increment(words, index * stride, stride, lastMask);
+        }
+      }
+    }
+
+    /** Advances the clock by {@code n} steps at once.
+     * @see Clock#advance(long)
+     */
+    public void advance (long n) {
+      synchronized(lockOf(index)) {
+        add(index, n);
+      }
+    }
+
+    /** Resets the clock.
+     * @see Clock#clear
+     */
+    public void clear () {
+      synchronized(lockOf(index)) {
+        Arrays.fill(words, index * stride, (index + 1) * stride, 0L);
+      }
+    }
+
+    /** Sets each bit value according to the array of booleans.
+     * @see Clock#setValue
+     */
+    public void setValue (boolean[] v) {
+      long[] value = pack(v);
+      synchronized(lockOf(index)) {
+        System.arraycopy(value, 0, words, index * stride, stride);
+      }
+    }
+
+    /** Sets each bit value according the long parameter.
+     * @see Clock#setLongValue
+     */
+    public void setLongValue (long v) {
+      if(nbBits < 63 && v > lastMask) { throw new IndexOutOfBoundsException("Value is " +
+                              "beyond clock capacity"); }
+      int off = index * stride;
+      synchronized(lockOf(index)) {
+        Arrays.fill(words, off + 1, off + stride, 0L);
+        words[off] = (stride == 1) ? v & lastMask : v;
+      }
+    }
+
+    /** Boolean value for each bit, as an array.
+     * @see Clock#getValue
+     */
+    public boolean[] getValue () {
+      return snapshot().getValue();
+    }
+
+    /** All bit values, as a long.
+     * @see Clock#getLongValue
+     */
+    public long getLongValue () {
+      int off = index * stride;
+      synchronized(lockOf(index)) {
+        if(BitWords.anySet(words, off + 1, off + stride)) { throw new IllegalStateException("Bits are set beyond bit 63"); }
+        return words[off];
+      }
+    }
+
+    /** Sets the clock direction.
+     * @see Clock#setDirection
+     */
+    public void setDirection (Clock.Direction d) {
+      synchronized(lockOf(index)) {
+        if(d == Clock.Direction.BACKWARD) {
+            backward[index >>> 6] |= 1L << index;
+        }
+        else {
+            backward[index >>> 6] &= ~(1L << index);
+        }
+      }
+    }
+
+    /** Gets the clock direction.
+     * @see Clock#getDirection
+     */
+    public Clock.Direction getDirection () {
+      synchronized(lockOf(index)) {
+        return isBackward(index) ? Clock.Direction.BACKWARD : Clock.Direction.FORWARD;
+      }
+    }
+
+    /** A consistent copy of the clock state.
+     * @see Clock#snapshot
+     */
+    public ClockSnapshot snapshot () {
+      long[] copy = new long[stride];
+      Clock.Direction d;
+      synchronized(lockOf(index)) {
+        System.arraycopy(words, index * stride, copy, 0, stride);
+        d = isBackward(index) ? Clock.Direction.BACKWARD : Clock.Direction.FORWARD;
+      }
+      return new ClockSnapshot(nbBits, copy, d, false);
+    }
+
+    /** A string representation of the clock, in the format of {@link
+     * Clock#toString}.
+     */
+    @Override public String toString () {
+      return snapshot().toString();
+    }
+
+    @Override public boolean equals (Object o) {
+      if(!(o instanceof View)) { return false; }
+      View v = (View)o;
+      return v.getFleet() == ClockFleet.this && v.index == index;
+    }
+
+    @Override public int hashCode () {
+      return System.identityHashCode(ClockFleet.this) * 31 + index;
+    }
+  }
+}
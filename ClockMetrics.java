@@ -0,0 +1,165 @@
+package cs671;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/** Runtime metrics of clocks and timers.  A single instance
+ * aggregates the activity of every clock and timer of the JVM: ticks,
+ * late and missed ticks, time spent stepping clocks, waiting for clock
+ * locks and notifying observers.
+ *
+ * <p> Counters are {@code LongAdder}s, so recording costs a few
+ * uncontended increments and a couple of {@code System.nanoTime()}
+ * calls per tick, and metrics are always on.  The instance is
+ * registered on the platform MBean server, under the name {@value
+ * #NAME}, when the first active clock is created (or when {@link #get}
+ * is first called), so it can be watched with any JMX console.
+ *
+ * @see ClockMetricsMBean
+ */
+public final class ClockMetrics implements ClockMetricsMBean {
+
+  /** Name under which the metrics are registered */
+  public static final String NAME = "cs671:type=ClockMetrics";
+
+  private static final LongBinaryOperator MAX = new LongBinaryOperator() {
+      public long applyAsLong (long a, long b) {
+        return Math.max(a, b);
+      }
+    };
+
+  /** The metrics, registered or not */
+  static final ClockMetrics INSTANCE = new ClockMetrics();
+
+  private static boolean registered = false;
+
+  private final LongAdder ticks = new LongAdder();
+  private final LongAdder taskTime = new LongAdder();
+  private final LongAdder lockWait = new LongAdder();
+  private final LongAdder dispatches = new LongAdder();
+  private final LongAdder dispatchTime = new LongAdder();
+  private final LongAdder coalesced = new LongAdder();
+  private final LongAdder late = new LongAdder();
+  private final LongAdder missed = new LongAdder();
+  private final LongAccumulator maxLateness = new LongAccumulator(MAX, 0L);
+  private volatile long lateThreshold = TimeUnit.MILLISECONDS.toNanos(10);
+
+  private ClockMetrics () {}
+
+  /** The metrics.  The first call registers them on the platform MBean
+   * server; if registration fails, metrics are still recorded and
+   * available through the returned object.
+   * @return the metrics of all clocks and timers
+   */
+  public static ClockMetrics get () {
+    synchronized(ClockMetrics.class) {
+      if(!registered) {
+        registered = true;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(NAME));
+        } catch (JMException | SecurityException ex) {
+            System.err.printf("clock metrics not registered: %s%n", ex);
+        }
+      }
+    }
+    return INSTANCE;
+  }
+
+  /** Records an automatic clock update.
+   * @param time duration of the update, including {@code wait}
+   * @param wait time spent waiting for the clock lock
+   */
+  void tick (long time, long wait) {
+    ticks.increment();
+    taskTime.add(time);
+    lockWait.add(wait);
+  }
+
+  /** Records a notification of observers.
+   * @param time duration of the notification
+   */
+  void dispatch (long time) {
+    dispatches.increment();
+    dispatchTime.add(time);
+  }
+
+  /** Records a change merged into one that a dispatcher has not
+   * delivered yet.
+   */
+  void coalesce () {
+    coalesced.increment();
+  }
+
+  /** Records the lateness of a timer tick.  Called by timers when a
+   * tick starts.
+   * @param lateness time since the tick deadline
+   * @param period timer delay
+   */
+  void timerTick (long lateness, long period) {
+    if(lateness > lateThreshold) { late.increment(); }
+    if(lateness >= period) { missed.increment(); }
+    maxLateness.accumulate(lateness);
+  }
+
+  @Override public long getTicks () {
+    return ticks.sum();
+  }
+
+  @Override public long getTaskTimeNanos () {
+    return taskTime.sum();
+  }
+
+  @Override public long getLockWaitTimeNanos () {
+    return lockWait.sum();
+  }
+
+  @Override public long getDispatches () {
+    return dispatches.sum();
+  }
+
+  @Override public long getDispatchTimeNanos () {
+    return dispatchTime.sum();
+  }
+
+  @Override public long getCoalescedChanges () {
+    return coalesced.sum();
+  }
+
+  @Override public long getLateTicks () {
+    return late.sum();
+  }
+
+  @Override public long getMissedTicks () {
+    return missed.sum();
+  }
+
+  @Override public long getMaxLatenessNanos () {
+    return maxLateness.get();
+  }
+
+  @Override public long getLateThresholdNanos () {
+    return lateThreshold;
+  }
+
+  @Override public void setLateThresholdNanos (long nanos) {
+    if(nanos < 0) { throw new IllegalArgumentException("Threshold is negative"); }
+    lateThreshold = nanos;
+  }
+
+  @Override public void reset () {
+    ticks.reset();
+    taskTime.reset();
+    lockWait.reset();
+    dispatches.reset();
+    dispatchTime.reset();
+    coalesced.reset();
+    late.reset();
+    missed.reset();
+    maxLateness.reset();
+  }
+}
@@ -0,0 +1,78 @@
+package cs671;
+
+/** Management interface of {@link ClockMetrics}.  All durations are
+ * in nanoseconds and all counts are totals over every clock and timer
+ * of the JVM since it started or since the last {@link #reset}.
+ *
+ * @see ClockMetrics
+ */
+public interface ClockMetricsMBean {
+
+  /** Number of automatic clock updates.
+   * @return the number of times a timer stepped a clock
+   */
+  public long getTicks ();
+
+  /** Time spent in automatic clock updates, including waiting for the
+   * clock lock and notifying observers synchronously.
+   * @return total time of the timer tasks, in nanoseconds
+   */
+  public long getTaskTimeNanos ();
+
+  /** Time spent by automatic clock updates waiting to acquire the
+   * clock lock, e.g., while another thread was setting the clock.
+   * @return total lock wait time, in nanoseconds
+   */
+  public long getLockWaitTimeNanos ();
+
+  /** Number of notifications of clock observers, automatic or not,
+   * synchronous or through a dispatcher.
+   * @return the number of events delivered to observers
+   */
+  public long getDispatches ();
+
+  /** Time spent notifying clock observers.
+   * @return total time of observer notifications, in nanoseconds
+   */
+  public long getDispatchTimeNanos ();
+
+  /** Number of clock changes merged by a dispatcher into a change not
+   * delivered yet, instead of being delivered on their own.
+   * @return the number of coalesced changes
+   * @see ClockDispatcher
+   */
+  public long getCoalescedChanges ();
+
+  /** Number of timer ticks that started later than the late threshold
+   * after their deadline.
+   * @return the number of late ticks
+   * @see #getLateThresholdNanos
+   */
+  public long getLateTicks ();
+
+  /** Number of timer ticks that started after the deadline of the
+   * following tick, i.e., ticks that were missed and had to be caught
+   * up.
+   * @return the number of missed ticks
+   */
+  public long getMissedTicks ();
+
+  /** Largest lateness of any timer tick.
+   * @return maximum lateness, in nanoseconds
+   */
+  public long getMaxLatenessNanos ();
+
+  /** Lateness above which a tick is counted as late.
+   * @return the threshold, in nanoseconds
+   */
+  public long getLateThresholdNanos ();
+
+  /** Sets the lateness above which a tick is counted as late.
+   * @param nanos the new threshold, in nanoseconds
+   * @throws IllegalArgumentException if the threshold is negative
+   */
+  public void setLateThresholdNanos (long nanos);
+
+  /** Resets all counters to zero.  The late threshold is unchanged. */
+  public void reset ();
+}
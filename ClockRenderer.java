@@ -0,0 +1,166 @@
+package cs671;
+
+import java.awt.AlphaComposite;
+import java.awt.Composite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/** Off-screen rendering of clocks.  A renderer draws clock states
+ * into a single image, with the same dots as {@link GraphicsClock},
+ * without any display (it works with {@code java.awt.headless=true}).
+ * The image is allocated once and reused for every frame; each frame
+ * only redraws the dots whose bit differs from the previous frame.
+ * Frames can be written as PNG images or as raw pixels.
+ *
+ * <p> Instances of this class <em>are not thread-safe</em>.
+ *
+ * @see GraphicsClock
+ */
+public class ClockRenderer {
+
+  private final int nbBits;
+  private final Dot[] dots;
+  private final BufferedImage image;
+  private final Graphics2D g;
+  /** Bits currently drawn in the image, packed as in {@code Clock} */
+  private final long[] shown;
+  /** Whether the image has been drawn at all */
+  private boolean drawn = false;
+  /** Buffer for raw frames, allocated on first use */
+  private byte[] raw;
+
+  /** Builds a renderer for clocks of {@code nbBits} bits.  The image
+   * has the size a {@code GraphicsClock} of the same width would have.
+   *
+   * @param nbBits the number of bits of the clocks to render
+   * @param width the width of the image, in pixels
+   * @throws IllegalArgumentException if <code>nbBits &lt; 1</code>
+   */
+  public ClockRenderer (int nbBits, int width) {
+    if(nbBits < 1) {
+        throw new IllegalArgumentException("nbBits must be greater then zero");
+    }
+    this.nbBits = nbBits;
+    this.dots = Dot.layout(nbBits, width);
+    int height = Dot.layoutHeight(nbBits, width);
+    for (Dot d : dots) {
+      Rectangle b = d.getPaintBounds();
+      height = Math.max(height, b.y + b.height);
+      width = Math.max(width, b.x + b.width);
+    }
+    this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    this.g = image.createGraphics();
+    g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+    this.shown = new long[BitWords.wordCount(nbBits)];
+  }
+
+  /** The image frames are rendered into.  Its content changes with
+   * each call to {@code render}.
+   * @return the image of this renderer
+   */
+  public BufferedImage getImage () {
+    return image;
+  }
+
+  /** Renders the current state of a clock, which can be a {@link
+   * Clock} or any other {@link BinaryClock}, like a clock of a {@link
+   * ClockFleet}.
+   * @param c the clock
+   * @return the image of this renderer
+   * @throws IllegalArgumentException if the clock does not have the
+   * number of bits of this renderer
+   */
+  public BufferedImage render (BinaryClock c) {
+    return render(c.snapshot());
+  }
+
+  /** Renders a clock state.  Only dots that changed since the
+   * previous frame are redrawn.
+   * @param s the clock state
+   * @return the image of this renderer
+   * @throws IllegalArgumentException if the state does not have the
+   * number of bits of this renderer
+   */
+  public BufferedImage render (ClockSnapshot s) {
+    if(s.size() != nbBits) {
+        throw new IllegalArgumentException("Clock has " + s.size() + " bits instead of " + nbBits);
+    }
+    for (int w = 0; w < shown.length; w++) {
+      long word = s.word(w);
+      long diff = drawn ? word ^ shown[w] : BitWords.lastMask(Math.min(64, nbBits - (w << 6)));
+      for (; diff != 0L; diff &= diff - 1) {
+        int n = (w << 6) + Long.numberOfTrailingZeros(diff);
+        int i = nbBits - n - 1;
+        if ((word & (1L << n)) != 0L) {
+          dots[i].set();
+        } else {
+          dots[i].unset();
+        }
+        redraw(i);
+      }
+      shown[w] = word;
+    }
+    drawn = true;
+    return image;
+  }
+
+  /** Redraws the area of dot {@code i}.  The edges of neighboring
+   * dots may reach into that area, so they are redrawn too, clipped to
+   * the area, in the same order as a full redraw.
+   */
+  private void redraw (int i) {
+    Rectangle r = dots[i].getPaintBounds();
+    g.setClip(r);
+    Composite c = g.getComposite();
+    g.setComposite(AlphaComposite.Clear);
+    g.fillRect(r.x, r.y, r.width, r.height);
+    g.setComposite(c);
+    for (int k = Math.max(0, i - 1); k <= Math.min(dots.length - 1, i + 1); k++) {
+      if (k == i || r.intersects(dots[k].getPaintBounds())) {
+        dots[k].paint(g);
+      }
+    }
+    g.setClip(null);
+  }
+
+  /** Writes the current frame as a PNG image.
+   * @param out the stream to write to; it is not closed
+   * @throws IOException if the image cannot be written
+   */
+  public void writePng (OutputStream out) throws IOException {
+    if (!javax.imageio.ImageIO.write(image, "png", out))
+      throw new IOException("no PNG writer available");
+  }
+
+  /** Writes the current frame as raw pixels: {@code width * height}
+   * pixels, row by row, each pixel as 4 bytes in ARGB order.  Frames
+   * written one after the other form a raw video stream.
+   * @param out the stream to write to; it is not closed
+   * @throws IOException if the frame cannot be written
+   */
+  public void writeRaw (OutputStream out) throws IOException {
+    int[] pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+    if (raw == null)
+      raw = new byte[pixels.length * 4];
+    for (int i = 0, j = 0; i < pixels.length; i++, j += 4) {
+      int p = pixels[i];
+      raw[j] = (byte)(p >>> 24);
+      raw[j + 1] = (byte)(p >>> 16);
+      raw[j + 2] = (byte)(p >>> 8);
+      raw[j + 3] = (byte)p;
+    }
+    out.write(raw);
+  }
+
+  /** Releases the graphics resources of this renderer.  The renderer
+   * cannot be used afterwards.
+   */
+  public void dispose () {
+    g.dispose();
+  }
+}
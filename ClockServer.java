@@ -0,0 +1,496 @@
+package cs671;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** Broadcast of clock changes over TCP.  A server publishes clocks
+ * under integer identifiers, and every connected subscriber receives
+ * the state of all published clocks, then a stream of changes.  A
+ * single thread serves all subscribers with a non-blocking selector.
+ *
+ * <p> The protocol is binary (big-endian) and one-way: subscribers
+ * only connect and read.  Each message starts with a type byte:
+ * <pre>
+ *   SNAPSHOT: byte 1, int id, long seq, int bits, byte direction,
+ *             int n, long[n] words
+ *   DELTA:    byte 2, int id, long seq, int from, int n, long[n] mask
+ *   REMOVED:  byte 3, int id
+ * </pre>
+ * A subscriber first receives a snapshot of each clock; after that, a
+ * delta gives the bits that changed in words {@code from} to {@code
+ * from+n-1}, to be XORed into the previous value.  Deltas do not carry
+ * the direction: when the direction of a clock changes, subscribers
+ * receive a new snapshot of it.  Sequence numbers
+ * count the changes of a clock seen by the server and grow with each
+ * message about that clock.  See {@link ClockClient}.
+ *
+ * <p> Clocks are never slowed down by subscribers.  Their observer
+ * only marks the clock as changed and wakes up the server thread,
+ * which reads the clock and computes the change.  Changes are then
+ * coalesced per subscriber: while a subscriber has not received the
+ * last change of a clock, further changes are XORed into it, so a slow
+ * subscriber costs at most one pending mask per clock and eventually
+ * receives the current state.  Messages are written from a small pool
+ * of direct buffers, which subscribers only hold while they have data
+ * to send.
+ *
+ * @see ClockClient
+ */
+public class ClockServer implements Closeable {
+
+  static final byte SNAPSHOT = 1, DELTA = 2, REMOVED = 3;
+
+  /** Size of the write buffers; also bounds the size of published
+   * clocks
+   */
+  static final int BUFFER_SIZE = 64 * 1024;
+  /** Number of idle write buffers kept for reuse */
+  static final int POOL_SIZE = 64;
+
+  /** Largest clock that fits a snapshot in one buffer */
+  static final int MAX_BITS = ((BUFFER_SIZE - 22) / 8) * 64;
+
+  private final Selector selector;
+  private final ServerSocketChannel server;
+  private final Thread thread;
+  private volatile boolean closed = false;
+
+  /** Published clocks, by id */
+  private final ConcurrentHashMap<Integer,Published> published = new ConcurrentHashMap<Integer,Published>();
+  /** Clocks that changed since the server thread last read them */
+  private final ConcurrentLinkedQueue<Published> ready = new ConcurrentLinkedQueue<Published>();
+  /** Publications and removals not yet announced to subscribers */
+  private final ConcurrentLinkedQueue<Published> announced = new ConcurrentLinkedQueue<Published>();
+
+  // state of the server thread
+  private final List<Published> clocks = new ArrayList<Published>();
+  private final List<Conn> conns = new ArrayList<Conn>();
+  private final ArrayDeque<ByteBuffer> pool = new ArrayDeque<ByteBuffer>();
+  private final ByteBuffer discard = ByteBuffer.allocate(256);
+  private int nextIndex = 0;
+  /** Indices of removed clocks that no subscriber refers to anymore */
+  private final ArrayDeque<Integer> freeIndices = new ArrayDeque<Integer>();
+
+  /** Starts a server on all local addresses.
+   * @param port the port, or 0 for any free port
+   * @throws IOException if the port cannot be bound
+   */
+  public ClockServer (int port) throws IOException {
+    this(new InetSocketAddress(port));
+  }
+
+  /** Starts a server.
+   * @param address the address to bind
+   * @throws IOException if the address cannot be bound
+   */
+  public ClockServer (InetSocketAddress address) throws IOException {
+    selector = Selector.open();
+    server = ServerSocketChannel.open();
+    server.bind(address);
+    server.configureBlocking(false);
+    server.register(selector, SelectionKey.OP_ACCEPT);
+    thread = new Thread(new Runnable() {
+        public void run () {
+          serve();
+        }
+      }, "ClockServer");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /** The port of the server.
+   * @return the local port the server is listening on
+   */
+  public int getPort () {
+    return server.socket().getLocalPort();
+  }
+
+  /** A published clock. */
+  private class Published implements Observer {
+    final int id;
+    final Clock clock;
+    final int nbWords;
+    /** Set by the observer, cleared by the server thread before reading the clock */
+    final AtomicBoolean dirty = new AtomicBoolean();
+    /** Set by remove; only stops the server thread from reading the clock */
+    volatile boolean removed = false;
+    // owned by the server thread
+    int index;
+    /** Removal announced: subscribers are sent REMOVED instead of changes */
+    boolean gone;
+    /** After removal, number of subscribers not yet told about it */
+    int holders;
+    long seq;
+    long[] value;
+    long[] scratch;
+    Clock.Direction dir;
+
+    Published (int id, Clock clock) {
+      this.id = id;
+      this.clock = clock;
+      this.nbWords = BitWords.wordCount(clock.size());
+    }
+
+    @Override
+    public void update (Observable o, Object arg) {
+      if(dirty.compareAndSet(false, true)) {
+          ready.add(this);
+          selector.wakeup();
+      }
+    }
+  }
+
+  /** Changes of one clock not yet sent to one subscriber. */
+  private static class Pending {
+    final Published clock;
+    final long[] mask;
+    /** Range of words of {@code mask} that may be non-zero */
+    int lo, hi;
+    /** Send the whole state rather than the mask */
+    boolean full;
+    boolean queued;
+
+    Pending (Published clock) {
+      this.clock = clock;
+      this.mask = new long[clock.nbWords];
+      this.lo = clock.nbWords;
+      this.hi = 0;
+    }
+  }
+
+  /** A subscriber. */
+  private class Conn {
+    final SocketChannel channel;
+    final SelectionKey key;
+    /** Pending changes, by clock index */
+    Pending[] pending = new Pending[16];
+    final ArrayDeque<Pending> queue = new ArrayDeque<Pending>();
+    /** Write buffer, held only while there is something to send */
+    ByteBuffer out;
+
+    Conn (SocketChannel channel, SelectionKey key) {
+      this.channel = channel;
+      this.key = key;
+    }
+
+    Pending pendingOf (Published p) {
+      if(p.index >= pending.length) {
+          pending = Arrays.copyOf(pending, Math.max(p.index + 1, pending.length * 2));
+      }
+      Pending d = pending[p.index];
+      if(d == null) {
+          d = pending[p.index] = new Pending(p);
+      }
+      return d;
+    }
+
+    void enqueue (Pending d) {
+      if(!d.queued) {
+          d.queued = true;
+          queue.add(d);
+      }
+      if((key.interestOps() & SelectionKey.OP_WRITE) == 0) {
+          key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+      }
+    }
+
+    /** Queues the whole state of a clock. */
+    void snapshot (Published p) {
+      Pending d = pendingOf(p);
+      d.full = true;
+      enqueue(d);
+    }
+
+    /** Merges a change of a clock into what is pending for it. */
+    void change (Published p, long[] diff, int lo, int hi) {
+      Pending d = pendingOf(p);
+      if(!d.full) {
+          for(int i = lo; i < hi; i++) {
+              d.mask[i] ^= diff[i];
+          }
+          d.lo = Math.min(d.lo, lo);
+          d.hi = Math.max(d.hi, hi);
+      }
+      enqueue(d);
+    }
+  }
+
+  /** Publishes a clock.  Subscribers receive its current state, then
+   * its changes, until it is removed.
+   *
+   * @param id identifier of the clock for subscribers
+   * @param clock the clock
+   * @throws IllegalArgumentException if a clock is already published
+   * with this identifier or if the clock has more than {@link
+   * #MAX_BITS} bits
+   * @throws IllegalStateException if the server is closed
+   */
+  public void publish (int id, Clock clock) {
+    if(closed) { throw new IllegalStateException("Server is closed"); }
+    if(clock.size() > MAX_BITS) { throw new IllegalArgumentException("Clock has more than " + MAX_BITS + " bits"); }
+    Published p = new Published(id, clock);
+    if(published.putIfAbsent(id, p) != null) { throw new IllegalArgumentException("Clock " + id + " is already published"); }
+    announced.add(p);
+    clock.addObserver(p);
+    selector.wakeup();
+  }
+
+  /** Stops publishing a clock.  Subscribers are told that the clock
+   * was removed.
+   * @param id identifier of the clock
+   * @return true iff a clock was published with this identifier
+   */
+  public boolean remove (int id) {
+    Published p = published.remove(id);
+    if(p == null) { return false; }
+    p.clock.deleteObserver(p);
+    p.removed = true;
+    announced.add(p);
+    selector.wakeup();
+    return true;
+  }
+
+  /** Number of connected subscribers.
+   * @return the number of subscribers currently connected
+   */
+  public int getSubscriberCount () {
+    synchronized(conns) {
+      return conns.size();
+    }
+  }
+
+  private void serve () {
+    while(!closed) {
+      try {
+          selector.select();
+          announce();
+          drain();
+          Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+          while(it.hasNext()) {
+            SelectionKey k = it.next();
+            it.remove();
+            if(!k.isValid()) { continue; }
+            if(k.isAcceptable()) {
+                accept();
+            }
+            else {
+                Conn c = (Conn)k.attachment();
+                try {
+                    if(k.isReadable()) { read(c); }
+                    if(k.isValid() && k.isWritable()) { write(c); }
+                } catch (IOException ex) {
+                    drop(c);
+                }
+            }
+          }
+      } catch (IOException | RuntimeException ex) {
+          if(!closed) { System.err.printf("clock server failed: %s%n", ex); }
+      }
+    }
+  }
+
+  /** Tells subscribers about publications and removals. */
+  private void announce () {
+    Published p;
+    while((p = announced.poll()) != null) {
+      if(p.value != null) { // announced before: this is its removal
+          p.gone = true;
+          clocks.remove(p);
+          p.holders = conns.size();
+          if(p.holders == 0) { freeIndices.add(p.index); }
+          for(Conn c : conns) {
+              Pending d = c.pendingOf(p);
+              d.full = false;
+              d.lo = p.nbWords;
+              d.hi = 0;
+              Arrays.fill(d.mask, 0L);
+              c.enqueue(d);
+          }
+      }
+      else if(!p.removed) { // not removed before it was announced
+          p.index = freeIndices.isEmpty() ? nextIndex++ : freeIndices.poll();
+          p.value = new long[p.nbWords];
+          p.scratch = new long[p.nbWords];
+          p.clock.getBits(p.value);
+          p.dir = p.clock.getDirection();
+          p.dirty.set(false);
+          clocks.add(p);
+          for(Conn c : conns) { c.snapshot(p); }
+      }
+    }
+  }
+
+  /** Reads the clocks that changed and queues their changes. */
+  private void drain () {
+    Published p;
+    while((p = ready.poll()) != null) {
+      p.dirty.set(false);
+      if(p.removed || p.value == null) { continue; }
+      p.clock.getBits(p.scratch);
+      Clock.Direction dir = p.clock.getDirection();
+      boolean turned = (dir != p.dir);
+      p.dir = dir;
+      int lo = 0, hi = p.nbWords;
+      while(lo < hi && p.scratch[lo] == p.value[lo]) { lo++; }
+      if(lo == hi && !turned) { continue; }
+      while(hi > lo && p.scratch[hi - 1] == p.value[hi - 1]) { hi--; }
+      for(int i = lo; i < hi; i++) {
+          long w = p.scratch[i];
+          p.scratch[i] ^= p.value[i];
+          p.value[i] = w;
+      }
+      p.seq++;
+      for(Conn c : conns) {
+        if(turned) {
+            c.snapshot(p); // deltas do not carry the direction
+        }
+        else {
+            c.change(p, p.scratch, lo, hi);
+        }
+      }
+    }
+  }
+
+  private void accept () throws IOException {
+    SocketChannel ch = server.accept();
+    if(ch == null) { return; }
+    ch.configureBlocking(false);
+    ch.socket().setTcpNoDelay(true);
+    SelectionKey k = ch.register(selector, SelectionKey.OP_READ);
+    Conn c = new Conn(ch, k);
+    k.attach(c);
+    synchronized(conns) {
+      conns.add(c);
+    }
+    for(Published p : clocks) { c.snapshot(p); }
+  }
+
+  /** Subscribers send nothing; reading only detects disconnection. */
+  private void read (Conn c) throws IOException {
+    discard.clear();
+    if(c.channel.read(discard) < 0) { drop(c); }
+  }
+
+  private void write (Conn c) throws IOException {
+    while(true) {
+      if(c.out == null) {
+          if(c.queue.isEmpty()) { break; }
+          c.out = pool.isEmpty() ? ByteBuffer.allocateDirect(BUFFER_SIZE) : pool.poll();
+          c.out.clear();
+          encode(c);
+          c.out.flip();
+      }
+      c.channel.write(c.out);
+      if(c.out.hasRemaining()) { return; } // socket full, wait for OP_WRITE
+      release(c);
+    }
+    c.key.interestOps(SelectionKey.OP_READ);
+  }
+
+  /** Encodes pending changes into the write buffer of a subscriber,
+   * as long as they fit.
+   */
+  private void encode (Conn c) {
+    ByteBuffer b = c.out;
+    Pending d;
+    while((d = c.queue.peek()) != null) {
+      Published p = d.clock;
+      if(p.gone) {
+          if(b.remaining() < 5) { return; }
+          b.put(REMOVED).putInt(p.id);
+          c.pending[p.index] = null;
+          forget(p);
+      }
+      else if(d.full) {
+          if(b.remaining() < 22 + 8 * p.nbWords) { return; }
+          b.put(SNAPSHOT).putInt(p.id).putLong(p.seq).putInt(p.clock.size())
+           .put((byte)(p.dir == Clock.Direction.FORWARD ? 0 : 1)).putInt(p.nbWords);
+          for(int i = 0; i < p.nbWords; i++) { b.putLong(p.value[i]); }
+          d.full = false;
+          Arrays.fill(d.mask, 0L);
+          d.lo = p.nbWords;
+          d.hi = 0;
+      }
+      else if(d.lo < d.hi) {
+          if(b.remaining() < 21 + 8 * (d.hi - d.lo)) { return; }
+          b.put(DELTA).putInt(p.id).putLong(p.seq).putInt(d.lo).putInt(d.hi - d.lo);
+          for(int i = d.lo; i < d.hi; i++) {
+              b.putLong(d.mask[i]);
+              d.mask[i] = 0L;
+          }
+          d.lo = p.nbWords;
+          d.hi = 0;
+      }
+      d.queued = false;
+      c.queue.poll();
+    }
+  }
+
+  private void release (Conn c) {
+    if(c.out != null && pool.size() < POOL_SIZE) { pool.add(c.out); }
+    c.out = null;
+  }
+
+  /** Frees the index of a removed clock once every subscriber was
+   * told about the removal.
+   */
+  private void forget (Published p) {
+    if(--p.holders == 0) { freeIndices.add(p.index); }
+  }
+
+  private void drop (Conn c) {
+    for(Pending d : c.queue) {
+      if(d.clock.gone) { forget(d.clock); }
+    }
+    c.queue.clear();
+    c.key.cancel();
+    try {
+        c.channel.close();
+    } catch (IOException ex) {
+    }
+    release(c);
+    synchronized(conns) {
+      conns.remove(c);
+    }
+  }
+
+  /** Stops the server and disconnects all subscribers.  Published
+   * clocks are no longer observed.
+   */
+  @Override public void close () {
+    if(closed) { return; }
+    closed = true;
+    for(Published p : published.values()) { p.clock.deleteObserver(p); }
+    published.clear();
+    selector.wakeup();
+    try {
+        thread.join();
+    } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+    }
+    synchronized(conns) {
+      for(Conn c : new ArrayList<Conn>(conns)) { drop(c); }
+    }
+    try {
+        server.close();
+        selector.close();
+    } catch (IOException ex) {
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package cs671;
+
+/** An immutable copy of the state of a clock.  Snapshots are taken
+ * with {@link Clock#snapshot} without acquiring the clock lock, and
+ * all their bits come from the same state of the clock, so several
+ * bits can be read consistently while the clock keeps changing.
+ *
+ * <p> The running status of the clock is read when the snapshot is
+ * taken, but not atomically with the bits.
+ *
+ * @see Clock#snapshot
+ */
+public final class ClockSnapshot {
+
+  private final int nbBits;
+  /** Value of the clock, packed as in {@code Clock} */
+  private final long[] words;
+  private final Clock.Direction dir;
+  private final boolean ticking;
+
+  /** Builds a snapshot.  The array is not copied. */
+  ClockSnapshot (int nbBits, long[] words, Clock.Direction dir, boolean ticking) {
+    this.nbBits = nbBits;
+    this.words = words;
+    this.dir = dir;
+    this.ticking = ticking;
+  }
+
+  /** Word number {@code i} of the value, packed as in {@code Clock}. */
+  long word (int i) {
+    return words[i];
+  }
+
+  /** Clock size
+   * @return the number of bits in the clock
+   */
+  public int size () {
+    return nbBits;
+  }
+
+  /** The value of bit number <code>n</code>.
+   *
+   * @param n bit number
+   * @return boolean value of that bit.
+   * @throws IndexOutOfBoundsException if no such bit exists
+   * @see Clock#getBit
+   */
+  public boolean getBit (int n) {
+    if((n < 0) || (n > (nbBits-1))) { throw new IndexOutOfBoundsException("No such bit (" + n + ") exists"); }
+    return (words[n >>> 6] & (1L << n)) != 0L;
+  }
+
+  /** Boolean value for each bit, as an array.
+   *
+   * @return boolean value for each bit
+   * @see Clock#getValue
+   */
+  public boolean[] getValue () {
+    boolean[] ret = new boolean[nbBits];
+    for(int w = 0; w < words.length; w++) {
+        // visits set bits only, lowest first
+        for(long word = words[w]; word != 0L; word &= word - 1) {
+            ret[(w << 6) + Long.numberOfTrailingZeros(word)] = true;
+        }
+    }
+    return ret;
+  }
+
+  /** All bit values, as a long.
+   * @return boolean value for each bit
+   * @throws IllegalStateException if the clock has more
+   * than 64 bits <em>and</em> at least one bit beyond 63 is set
+   * @see Clock#getLongValue
+   */
+  public long getLongValue () {
+    if(BitWords.anySet(words, 1, words.length)) { throw new IllegalStateException("Bits are set beyond bit 63"); }
+    return words[0];
+  }
+
+  /** The clock direction when the snapshot was taken.
+   * @return the clock's direction
+   */
+  public Clock.Direction getDirection () {
+    return dir;
+  }
+
+  /** The status of the clock when the snapshot was taken.
+   * @return true iff the clock was running
+   */
+  public boolean isTicking () {
+    return ticking;
+  }
+
+  /** A string representation of the snapshot, in the same format as
+   * {@link Clock#toString}.
+   *
+   * @return a string representation of the clock state
+   */
+  @Override public String toString () {
+    char[] ret = new char[nbBits];
+    for(int i = 0; i < nbBits; i++) {
+        ret[nbBits - i - 1] = ((words[i >>> 6] & (1L << i)) != 0L) ? '1' : '0';
+    }
+    return new String(ret) + (ticking ? " [ON]" : " [OFF]");
+  }
+}
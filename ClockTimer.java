@@ -1,5 +1,7 @@
 package cs671;
 
+import java.util.concurrent.TimeUnit;
+
 /** Clock timers.  Objects of this type implement simple timers
  * suitable for a single repeating task, like stepping a clock.  The
  * task is specified as a {@code Runnable} and the delay as a number
@@ -7,6 +9,10 @@ package cs671;
  * start after a fixed delay from the <em>beginning</em> of the
  * previous run, not the end.
  *
+ * Delays can also be given with a finer resolution (see {@link
+ * #setDelay(long,TimeUnit)}), which timers support only if they can
+ * honor it.
+ *
  * Note that, in contrast to {@link #setRunnable}, {@link #setDelay}
  * and {@link #start}, methods {@link #stop} and {@link #cancel} do
  * not throw an {@code IllegalStateException}.  They simply have no
@@ -33,6 +39,27 @@ public interface ClockTimer {
    */
   public void setDelay (long d) throws IllegalStateException;
 
+  /** Sets the timer delay in any time unit.  Timers that can schedule
+   * ticks with a sub-millisecond resolution override this method to
+   * accept any positive delay; by default, the delay must be a whole
+   * number of milliseconds and is passed to {@link #setDelay(long)}.
+   *
+   * @param d the delay
+   * @param unit the unit of {@code d}
+   * @throws IllegalStateException if the timer is currently running or
+   * if it was canceled
+   * @throws IllegalArgumentException if the delay is not positive or
+   * if this timer cannot honor it
+   */
+  public default void setDelay (long d, TimeUnit unit) throws IllegalStateException {
+    long nanos = unit.toNanos(d);
+    if(nanos <= 0) { throw new IllegalArgumentException("Delay is not positive"); }
+    if(nanos % 1000000L != 0) {
+        throw new IllegalArgumentException("Delay is not a whole number of milliseconds: " + nanos + "ns");
+    }
+    setDelay(nanos / 1000000L);
+  }
+
   /** Starts the timer.  The timer should already have a task and a
    * delay.  The first execution of the task is postponed by a value
    * equal to the delay.
@@ -0,0 +1,24 @@
+package cs671;
+
+/** Factories of clock timers.  Each provider creates timers of one
+ * implementation, identified by a name.  Providers are made available
+ * to {@link Clock#Clock(int,String)} by registering them with {@link
+ * ClockTimerRegistry#register}, or by listing them in a {@code
+ * META-INF/services/cs671.ClockTimerProvider} file, to be found by
+ * {@code java.util.ServiceLoader}; such providers must have a public,
+ * no-argument constructor.
+ *
+ * @see ClockTimerRegistry
+ */
+public interface ClockTimerProvider {
+
+  /** The name of the timers, e.g., the name of their class.
+   * @return the name under which the provider is registered
+   */
+  public String getName ();
+
+  /** Creates a timer.  The timer has no task and no delay.
+   * @return a new, stopped timer
+   */
+  public ClockTimer newTimer ();
+}
@@ -0,0 +1,174 @@
+package cs671;
+
+import java.lang.reflect.Constructor;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Registry of clock timer implementations, by name.  The timers of
+ * this package are registered under their class names ({@code
+ * "cs671.SimpleClockTimer"}, ...), together with any {@link
+ * ClockTimerProvider} found by {@code java.util.ServiceLoader} when
+ * the registry is first used.  Other providers can be registered at
+ * any time.
+ *
+ * <p> A name that has no provider is taken as the name of a class
+ * that implements {@code ClockTimer} and has a public, no-argument
+ * constructor (the class itself need not be public).  The class is
+ * looked up once; its constructor is then
+ * cached in a provider registered under that name, so reflection is
+ * not repeated for every timer.
+ *
+ * <p> The registry is thread-safe.
+ *
+ * @see Clock#Clock(int,String)
+ */
+public final class ClockTimerRegistry {
+
+  private static final ConcurrentHashMap<String,ClockTimerProvider> PROVIDERS =
+    new ConcurrentHashMap<String,ClockTimerProvider>();
+
+  static {
+    register(new ClockTimerProvider() {
+        public String getName () { return SimpleClockTimer.class.getName(); }
+        public ClockTimer newTimer () { return new SimpleClockTimer(); }
+      });
+    register(new ClockTimerProvider() {
+        public String getName () { return SpinClockTimer.class.getName(); }
+        public ClockTimer newTimer () { return new SpinClockTimer(); }
+      });
+    register(new ClockTimerProvider() {
+        public String getName () { return UtilClockTimer.class.getName(); }
+        public ClockTimer newTimer () { return new UtilClockTimer(); }
+      });
+    register(new ClockTimerProvider() {
+        public String getName () { return ScheduledClockTimer.class.getName(); }
+        public ClockTimer newTimer () { return new ScheduledClockTimer(); }
+      });
+    register(new ClockTimerProvider() {
+        public String getName () { return WheelClockTimer.class.getName(); }
+        public ClockTimer newTimer () { return new WheelClockTimer(); }
+      });
+    register(new ClockTimerProvider() {
+        public String getName () { return VirtualThreadClockTimer.class.getName(); }
+        public ClockTimer newTimer () { return new VirtualThreadClockTimer(); }
+      });
+    register(new ClockTimerProvider() {
+        public String getName () { return GroupClockTimer.class.getName(); }
+        public ClockTimer newTimer () { return new GroupClockTimer(); }
+      });
+    Iterator<ClockTimerProvider> it = ServiceLoader.load(ClockTimerProvider.class).iterator();
+    while(true) {
+      try {
+          if(!it.hasNext()) { break; }
+          register(it.next());
+      } catch (ServiceConfigurationError ex) {
+          System.err.printf("timer provider not loaded: %s%n", ex.getMessage());
+      }
+    }
+  }
+
+  private ClockTimerRegistry () {}
+
+  /** Registers a provider under its name, replacing any provider
+   * previously registered under the same name.
+   * @param p the provider
+   * @return the provider that was replaced, or null
+   */
+  public static ClockTimerProvider register (ClockTimerProvider p) {
+    return PROVIDERS.put(p.getName(), p);
+  }
+
+  /** The names of the registered timers, in alphabetical order.
+   * @return the names that {@link #newTimer} accepts without looking
+   * up a class
+   */
+  public static Set<String> getAvailableNames () {
+    return Collections.unmodifiableSet(new TreeSet<String>(PROVIDERS.keySet()));
+  }
+
+  /** Finds the provider of a timer.  If no provider is registered
+   * under that name, the name is taken as the name of a timer class,
+   * and a provider for that class is registered.
+   * @param name the name of a timer
+   * @return the provider
+   * @throws IllegalArgumentException if the name is null, or if there
+   * is no such provider and the specified class cannot be loaded, is
+   * not of type {@code ClockTimer} or has no public, no-argument
+   * constructor
+   */
+  public static ClockTimerProvider getProvider (String name) {
+    if(name == null) { throw new IllegalArgumentException("Timer name is null"); }
+    ClockTimerProvider p = PROVIDERS.get(name);
+    if(p != null) { return p; }
+    p = new ClassProvider(name);
+    ClockTimerProvider prev = PROVIDERS.putIfAbsent(name, p);
+    return (prev != null) ? prev : p;
+  }
+
+  /** Creates a timer.
+   * @param name the name of a timer
+   * @return a new, stopped timer with no task and no delay
+   * @throws IllegalArgumentException if there is no provider for that
+   * name (see {@link #getProvider}) or if the provider fails to create
+   * a timer
+   */
+  public static ClockTimer newTimer (String name) {
+    ClockTimerProvider p = getProvider(name);
+    try {
+        ClockTimer t = p.newTimer();
+        if(t == null) { throw new IllegalArgumentException("Provider " + name + " returned no timer"); }
+        return t;
+    } catch (RuntimeException | LinkageError ex) {
+        if(ex instanceof IllegalArgumentException) { throw (IllegalArgumentException)ex; }
+        throw new IllegalArgumentException("Timer " + name + " cannot be instantiated", ex);
+    }
+  }
+
+  /** Provider of the timers of a class, by reflection.  The class and
+   * its constructor are looked up once, when the provider is created.
+   */
+  private static final class ClassProvider implements ClockTimerProvider {
+    private final String name;
+    private final Constructor<? extends ClockTimer> cons;
+
+    ClassProvider (String name) {
+      Class<?> c;
+      try {
+          c = Class.forName(name);
+      } catch (ClassNotFoundException | LinkageError ex) {
+          throw new IllegalArgumentException("Specified class cannot be loaded: " + name);
+      }
+      if(!ClockTimer.class.isAssignableFrom(c)) {
+          throw new IllegalArgumentException("Class " + name + " is not of type ClockTimer");
+      }
+      try {
+          cons = c.asSubclass(ClockTimer.class).getConstructor();
+      } catch (NoSuchMethodException | SecurityException ex) {
+          throw new IllegalArgumentException("Class " + name + " has no public, no-argument constructor");
+      }
+      try {
+          cons.setAccessible(true); // for timer classes that are not public
+      } catch (RuntimeException ex) {
+          // not permitted (e.g., by a module); newTimer reports any failure
+      }
+      this.name = name;
+    }
+
+    @Override public String getName () {
+      return name;
+    }
+
+    @Override public ClockTimer newTimer () {
+      try {
+          return cons.newInstance();
+      } catch (ReflectiveOperationException ex) {
+          throw new IllegalArgumentException("Specified class cannot be instantiated: " + name, ex);
+      }
+    }
+  }
+}
@@ -6,7 +6,12 @@ import java.awt.Stroke;
 import java.awt.BasicStroke;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.RenderingHints;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Ellipse2D;
+import java.awt.geom.Rectangle2D;
 
 /** A "dot" for the binary clock.  A dot can be set or unset and is
  * displayed using two different colors to reflect its state.  It's
@@ -15,15 +20,28 @@ import java.awt.geom.Ellipse2D;
  * objects, are not thread-safe.  However, methods {@code set} and
  * {@code unset} are properly synchronized and can be called from any
  * thread.
+ *
+ * <p> When painted without rotation or shear, and without scaling or
+ * with the same scale in both directions (as on HiDPI displays), dots
+ * are copied from shared pre-rendered images (see {@link DotSprites})
+ * instead of being drawn as shapes.
  */
 class Dot extends Ellipse2D.Double {
 
   private static final long serialVersionUID = 6488626274695860708L;
 
-  private static final Paint OFF = Color.GRAY;
-  private static final Paint ON  = Color.ORANGE;
+  static final Paint OFF = Color.GRAY;
+  static final Paint ON  = Color.ORANGE;
 
   private final Stroke stroke;
+  /** Pixels covered by the dot, including its outline */
+  private final Rectangle area;
+  /** Radius of the dot */
+  private final double radius;
+  /** Position of the dot sprite */
+  private final int spriteX, spriteY;
+  /** Sprites used for the last paint, if any */
+  private transient DotSprites sprites;
 
   private Paint color;
 
@@ -38,10 +56,55 @@ class Dot extends Ellipse2D.Double {
     if (r < 10)
       throw new IllegalArgumentException("Dot radius must be at least 10");
     stroke = new BasicStroke((float)(r / 5));
+    // the outline is centered on the circle, so half of it is outside
+    double pad = r / 10 + 1;
+    area = new Rectangle2D.Double(x-r-pad, y-r-pad, 2*(r+pad), 2*(r+pad)).getBounds();
+    radius = r;
+    int size = spriteSize(r);
+    spriteX = (int)Math.round(x - size / 2.0);
+    spriteY = (int)Math.round(y - size / 2.0);
+    area.add(new Rectangle(spriteX, spriteY, size, size));
     synchronized (this) {
       color = OFF;
     }
   }
+  /** Lays out the dots of a clock on a line, most significant bit
+   * first.  The dots are as big as the width allows, but never smaller
+   * than the minimum radius.
+   *
+   * @param nbBits the number of bits of the clock
+   * @param width the width of the clock, in pixels
+   * @return one unset dot per bit; dot {@code i} displays bit
+   * number {@code nbBits - i - 1}
+   */
+  static Dot[] layout (int nbBits, int width) {
+    Dot[] dots = new Dot[nbBits];
+    double r = (width - 10) / (2.25 * nbBits);
+    if (r < 10) { r = 10; }
+    double y = r * 1.25;
+    double x = 2.25 * r;
+    for (int i=0; i<dots.length; i++) {
+      dots[i] = new Dot(r*1.25+i*x, y, r);
+    }
+    return dots;
+  }
+
+  /** Height of a clock laid out by {@link #layout}.
+   * @param nbBits the number of bits of the clock
+   * @param width the width of the clock, in pixels
+   * @return the height of the clock, in pixels
+   */
+  static int layoutHeight (int nbBits, int width) {
+    return (int)(1.1*width/nbBits);
+  }
+
+  /** Size of the sprites of a dot of radius {@code r}: the circle
+   * plus half its outline, and one pixel of margin on each side.
+   */
+  static int spriteSize (double r) {
+    return (int)Math.ceil(2 * (r + r / 10 + 1));
+  }
+
   /** Paints the dot. */
   public void paint(Graphics g) {
     Paint color;
@@ -49,12 +112,46 @@ class Dot extends Ellipse2D.Double {
       color = this.color;
     }
     Graphics2D g2 = (Graphics2D)g;
+    AffineTransform t = g2.getTransform();
+    int type = t.getType() & ~AffineTransform.TYPE_TRANSLATION;
+    if (type == 0 || (type == AffineTransform.TYPE_UNIFORM_SCALE && t.getScaleX() > 0)) {
+      double scale = (type == 0) ? 1 : t.getScaleX();
+      GraphicsConfiguration gc = g2.getDeviceConfiguration();
+      Object aa = g2.getRenderingHint(RenderingHints.KEY_ANTIALIASING);
+      DotSprites s = sprites;
+      if (s == null || s.config != gc || s.antialias != aa || s.scale != scale) {
+        sprites = s = DotSprites.get(gc, radius, scale, aa);
+      }
+      java.awt.Image img = (color == ON) ? s.on : s.off;
+      if (type == 0) {
+        g2.drawImage(img, spriteX, spriteY, null);
+        return;
+      }
+      // copy the sprite in device pixels, centered on the dot
+      int x = (int)Math.round(getCenterX() * scale + t.getTranslateX() - s.size / 2.0);
+      int y = (int)Math.round(getCenterY() * scale + t.getTranslateY() - s.size / 2.0);
+      g2.setTransform(new AffineTransform());
+      try {
+        g2.drawImage(img, x, y, null);
+      } finally {
+        g2.setTransform(t);
+      }
+      return;
+    }
     g2.setStroke(stroke);
     g2.setPaint(color);
     g2.fill(this);
     g2.setPaint(Color.BLACK);
     g2.draw(this);
   }
+  /** The area painted by the dot.  Unlike {@code getBounds}, this
+   * includes the part of the outline that falls outside the circle.
+   * @return the smallest rectangle of pixels containing the dot; the
+   * rectangle must not be modified
+   */
+  public Rectangle getPaintBounds () {
+    return area;
+  }
   /** Sets the dot.  In a set state, the dot is painted orange. */
   public synchronized void set () {
     color = ON;
@@ -0,0 +1,121 @@
+package cs671;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.geom.Ellipse2D;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Pre-rendered dot images.  Painting a dot as a shape (fill, then
+ * stroke, possibly antialiased) is much slower than copying an image,
+ * so the ON and OFF appearances of a dot of a given radius are
+ * rendered once into images compatible with the target device, and
+ * shared by all dots of that radius.
+ *
+ * <p> Sprites are rendered in device pixels, and cached per graphics
+ * configuration, radius, device scale and antialiasing hint, so moving
+ * a window to another screen (possibly with another scale, as on HiDPI
+ * displays) or resizing a clock (which changes the radius) simply
+ * selects other sprites.
+ * Only a few sprite sets are kept; the least recently used ones are
+ * dropped.
+ *
+ * @see Dot
+ */
+final class DotSprites {
+
+  /** Maximum number of cached sprite sets */
+  private static final int CAPACITY = 16;
+
+  private static final Map<Key, DotSprites> cache =
+    new LinkedHashMap<Key, DotSprites>(CAPACITY, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+      @Override
+      protected boolean removeEldestEntry (Map.Entry<Key, DotSprites> e) {
+        return size() > CAPACITY;
+      }
+    };
+
+  /** Configuration the sprites were rendered for */
+  final GraphicsConfiguration config;
+  /** Antialiasing hint the sprites were rendered with */
+  final Object antialias;
+  /** Scale from user space to device pixels the sprites were rendered for */
+  final double scale;
+  /** Width and height of the sprites, in pixels */
+  final int size;
+  final BufferedImage on, off;
+
+  private DotSprites (GraphicsConfiguration config, double r, double scale, Object antialias) {
+    this.config = config;
+    this.antialias = antialias;
+    this.scale = scale;
+    this.size = Dot.spriteSize(r * scale);
+    this.on = render(config, r * scale, antialias, Dot.ON, size);
+    this.off = render(config, r * scale, antialias, Dot.OFF, size);
+  }
+
+  private static BufferedImage render (GraphicsConfiguration gc, double r,
+                                       Object antialias, java.awt.Paint color, int size) {
+    BufferedImage img = (gc != null)
+      ? gc.createCompatibleImage(size, size, Transparency.TRANSLUCENT)
+      : new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g = img.createGraphics();
+    try {
+      if (antialias != null)
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, antialias);
+      Ellipse2D.Double dot = new Ellipse2D.Double(size / 2.0 - r, size / 2.0 - r, 2 * r, 2 * r);
+      g.setStroke(new BasicStroke((float)(r / 5)));
+      g.setPaint(color);
+      g.fill(dot);
+      g.setPaint(Color.BLACK);
+      g.draw(dot);
+    } finally {
+      g.dispose();
+    }
+    return img;
+  }
+
+  /** Gets the sprites for dots of radius {@code r} (in user space)
+   * painted at the given scale, rendering them if needed.
+   */
+  static DotSprites get (GraphicsConfiguration gc, double r, double scale, Object antialias) {
+    Key k = new Key(gc, r, scale, antialias);
+    synchronized (cache) {
+      DotSprites s = cache.get(k);
+      if (s == null)
+        cache.put(k, s = new DotSprites(gc, r, scale, antialias));
+      return s;
+    }
+  }
+
+  private static final class Key {
+    private final GraphicsConfiguration gc;
+    private final double r, scale;
+    private final Object antialias;
+
+    Key (GraphicsConfiguration gc, double r, double scale, Object antialias) {
+      this.gc = gc;
+      this.r = r;
+      this.scale = scale;
+      this.antialias = antialias;
+    }
+
+    @Override public boolean equals (Object o) {
+      if (!(o instanceof Key))
+        return false;
+      Key k = (Key)o;
+      return k.gc == gc && k.r == r && k.scale == scale && k.antialias == antialias;
+    }
+
+    @Override public int hashCode () {
+      return (System.identityHashCode(gc) * 31 + Double.hashCode(r)) * 31
+        + Double.hashCode(scale) + System.identityHashCode(antialias);
+    }
+  }
+}
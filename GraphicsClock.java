@@ -1,12 +1,14 @@
 package cs671;
 
+import java.awt.Rectangle;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.util.Observable;
 import java.util.Observer;
 
 
-/** Graphical representation of a binary clock.
+/** Graphical representation of a binary clock.  When the clock
+ * changes, only the dots of the bits that changed are repainted.
  *
  * @author  Michel Charpentier
  * @version 3.1, 02/12/13
@@ -27,30 +29,30 @@ public class GraphicsClock extends javax.swing.JComponent implements MouseListen
   public GraphicsClock (Clock clock, int width) {
     this.clock = clock;
     int nbBits = clock.size();
-    dots = new Dot[nbBits];
-    double r = (width - 10) / (2.25 * nbBits);
-    if (r < 10) { r = 10; }
-    double y = r * 1.25;
-    double x = 2.25 * r;
+    dots = Dot.layout(nbBits, width);
+    ClockSnapshot state = clock.snapshot();
     for (int i=0; i<dots.length; i++) {
-      Dot d = dots[i] = new Dot(r*1.25+i*x, y, r);
-      if (clock.getBit(nbBits - i - 1)) {
-        d.set();
+      if (state.getBit(nbBits - i - 1)) {
+        dots[i].set();
       }
     }
-    setPreferredSize(new java.awt.Dimension(width,(int)(1.1*width/nbBits)));
+    setPreferredSize(new java.awt.Dimension(width, Dot.layoutHeight(nbBits, width)));
     
     clock.addObserver(this);
     addMouseListener(this);
   }
 
-  /** Paints the clock as a line of big dots.
+  /** Paints the clock as a line of big dots.  Dots outside the clip
+   * area are skipped.
    * @see <a href="Dot.java">Dot.java</a>
    */
     @Override
   protected void paintComponent (java.awt.Graphics  g) {
+    Rectangle clip = g.getClipBounds();
     for (Dot dot : dots) {
+        if (clip == null || clip.intersects(dot.getPaintBounds())) {
           dot.paint(g);
+        }
       }
   }
 
@@ -117,10 +119,41 @@ public class GraphicsClock extends javax.swing.JComponent implements MouseListen
 
     @Override
     public void update(Observable o, Object arg) {
+        if (arg instanceof ClockEvent) {
+            /* Only touch the dots whose bit changed; events are
+             * delivered in order, so their values are never older than
+             * what is already displayed */
+            ClockEvent e = (ClockEvent)arg;
+            if (!e.hasChanges()) {
+                return;
+            }
+            int nbBits = e.size();
+            Rectangle dirty = null;
+            for (int n = e.nextChangedBit(0); n >= 0; n = e.nextChangedBit(n + 1)) {
+                Dot d = dots[nbBits - n - 1];
+                if (e.getBit(n)) {
+                    d.set();
+                }
+                else {
+                    d.unset();
+                }
+                if (dirty == null) {
+                    dirty = new Rectangle(d.getPaintBounds());
+                }
+                else {
+                    dirty.add(d.getPaintBounds());
+                }
+            }
+            if (dirty != null) {
+                this.repaint(dirty);
+            }
+            return;
+        }
         /* Re-draw dots and repaint */
+        ClockSnapshot state = clock.snapshot();
         for (int i=0; i<dots.length; i++) {
             Dot d = dots[i];
-         if (clock.getBit(clock.size() - i - 1)) {
+         if (state.getBit(clock.size() - i - 1)) {
                 d.set();
             }
          else {
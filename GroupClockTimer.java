@@ -0,0 +1,308 @@
+package cs671;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** Timers grouped by delay.  All running instances of this class that
+ * have the same delay form a group, and the group ticks as a whole:
+ * a single timeout on the shared {@link TimingWheel} starts a pass
+ * that runs the tasks of every timer of the group.  The pass is split
+ * into subtasks run by the common {@code ForkJoinPool}, so stepping N
+ * clocks on one period costs one wakeup and uses all cores.
+ *
+ * <p> The ticks of a group are aligned on its passes: the passes are
+ * due every delay, without drift, from one delay after the first
+ * timer of the group was started.  A timer started later, while the
+ * group exists, joins it and takes its phase: its first tick is the
+ * first pass that is due at least one delay after it was started.
+ * Unlike with other timers, that first tick can therefore be late by
+ * up to one delay (rounded up to the next tick of the wheel, one
+ * millisecond); the ticks that follow are on time, on the passes of
+ * the group.  This shift is the price of stepping all the clocks that
+ * share a delay in one pass.  A group is dissolved when its last timer
+ * stops.  Like those of the timing wheel, delays are whole
+ * milliseconds.
+ *
+ * <p> Passes of a group never overlap.  If a pass takes longer than
+ * the delay, the next pass starts as soon as it is over, so no tick is
+ * lost, but tasks should be short, like stepping a clock.  Once
+ * {@code stop} returns, the task is not run again until the timer is
+ * restarted: {@code stop} waits for a tick that is under way, unless
+ * it is called by the task itself.  An exception thrown by a task is
+ * reported and does not affect the other timers of the group.
+ *
+ * <p> Instances of this class <em>are thread-safe</em> (i.e., a timer
+ * instance can be shared among multiple threads).
+ *
+ * @see TimingWheel
+ */
+public class GroupClockTimer implements ClockTimer {
+
+    /** Maximum number of tasks run sequentially by a subtask */
+    static final int LEAF = 64;
+
+    /** Groups with at least one running timer, by delay */
+    private static final Map<Long,Group> GROUPS = new HashMap<Long,Group>();
+
+    /* Runnable to be called by timer at every <code>delay</code> intervals */
+    private Runnable r;
+    /** Delay interval in between calls to timer */
+    private long delay;
+
+    /** Determines whether or not the timer is currently running(i.e. stop not called) */
+    private volatile boolean running = false;
+    /** Determines whether or not the timer has been canceled */
+    private boolean canceled = false;
+    /** Earliest pass at which the timer ticks, as a {@code System.nanoTime()} value */
+    private volatile long firstDeadline;
+    /** Task of the current run */
+    private volatile Runnable task;
+    /** Group of the current run and slot of the timer in it, guarded
+     * by the groups
+     */
+    private Group group;
+    private int slot;
+    /** Held while the task runs, so stop can wait for a tick under way */
+    private final ReentrantLock ticking = new ReentrantLock();
+
+    /* Object which allows for synchronization of lock */
+    private final Object lock;
+
+  /** Creates a new timer.  The timer is initially stopped.
+   * @param r the timer task
+   * @param d the timer delay, in milliseconds
+   */
+  public GroupClockTimer (Runnable r, long d) {
+    this.r = r;
+    delay = d;
+    lock = new Object();
+  }
+
+  /** Creates a new timer.  The timer has no task and no delay. */
+  public GroupClockTimer () {
+    this(null, 0);
+  }
+
+  /**
+   * The running timers that share a delay.  The group is scheduled on
+   * the wheel once per delay; each expiration requests a pass, and
+   * passes are run one after the other on the fork-join pool.
+   */
+  private static class Group extends TimingWheel.Timeout implements Runnable {
+    private final long delay;
+    private final long period;
+    /** Deadline of the next expiration */
+    private long deadline;
+    /** Deadline of the next pass to run; owned by the running pass */
+    private long passDeadline;
+    /** Number of requested passes not yet completed */
+    private final AtomicInteger due = new AtomicInteger();
+    /** Running timers in slots {@code [0, size)}, null for timers that
+     * stopped.  Timers are appended in place; the array is only
+     * replaced when it grows or is compacted, so a pass can work on the
+     * array and size it read when it started.
+     */
+    private GroupClockTimer[] slots = new GroupClockTimer[16];
+    private int size;
+    /** Number of null slots below {@code size} */
+    private int dead;
+    /** False once the group is dissolved */
+    private boolean active = true;
+
+    Group (long delay, long firstPass) {
+      this.delay = delay;
+      this.period = TimeUnit.MILLISECONDS.toNanos(delay);
+      this.deadline = firstPass;
+      this.passDeadline = deadline;
+    }
+
+    /** Adds a timer.  Must be called while owning the groups lock. */
+    void add (GroupClockTimer t) {
+      if(size == slots.length) {
+          slots = Arrays.copyOf(slots, size * 2);
+      }
+      t.slot = size;
+      slots[size++] = t;
+    }
+
+    /** Removes a timer, compacting the slots into a new array once
+     * half of them are empty.  Must be called while owning the groups
+     * lock.
+     */
+    void remove (GroupClockTimer t) {
+      slots[t.slot] = null;
+      if(++dead > size / 2 && dead < size) {
+          GroupClockTimer[] n = new GroupClockTimer[Math.max(16, (size - dead) * 2)];
+          int k = 0;
+          for(int i = 0; i < size; i++) {
+              if(slots[i] != null) {
+                  slots[i].slot = k;
+                  n[k++] = slots[i];
+              }
+          }
+          slots = n;
+          size = k;
+          dead = 0;
+      }
+    }
+
+    @Override
+    void expire () {
+      synchronized(GROUPS) {
+          if(!active) { return; }
+          deadline += period;
+          TimingWheel.SHARED.schedule(this, deadline);
+      }
+      if(due.getAndIncrement() == 0) {
+          ForkJoinPool.commonPool().execute(this);
+      }
+    }
+
+    /** Runs the requested passes. */
+    @Override
+    public void run () {
+      do {
+          GroupClockTimer[] m;
+          int n;
+          synchronized(GROUPS) {
+              m = slots;
+              n = size;
+          }
+          new Pass(m, 0, n, passDeadline, period).invoke();
+          passDeadline += period;
+      } while(due.decrementAndGet() > 0);
+    }
+  }
+
+  /**
+   * Part of a pass: runs the tasks of {@code members[from..to)},
+   * splitting the range in halves until it is small enough.
+   */
+  private static class Pass extends RecursiveAction {
+    private static final long serialVersionUID = 4213260524478417312L;
+
+    private final GroupClockTimer[] members;
+    private final int from, to;
+    private final long deadline, period;
+
+    Pass (GroupClockTimer[] members, int from, int to, long deadline, long period) {
+      this.members = members;
+      this.from = from;
+      this.to = to;
+      this.deadline = deadline;
+      this.period = period;
+    }
+
+    @Override
+    protected void compute () {
+      if(to - from > LEAF) {
+          int mid = (from + to) >>> 1;
+          invokeAll(new Pass(members, from, mid, deadline, period),
+                    new Pass(members, mid, to, deadline, period));
+          return;
+      }
+      for(int i = from; i < to; i++) {
+          GroupClockTimer t = members[i];
+          if(t == null) { continue; }
+          t.ticking.lock();
+          try {
+              // checked under the tick lock, so stop waits for this tick
+              if(!t.running || deadline < t.firstDeadline) { continue; }
+              ClockMetrics.INSTANCE.timerTick(System.nanoTime() - deadline, period);
+              t.task.run();
+          } catch (RuntimeException ex) {
+              System.err.printf("timer task failed: %s%n", ex);
+          } finally {
+              t.ticking.unlock();
+          }
+      }
+    }
+  }
+
+  @Override
+  public boolean isRunning () {
+    return running;
+  }
+
+  @Override
+  public Runnable setRunnable (Runnable r) {
+    synchronized(lock) {
+        if(running) { throw new IllegalStateException("Timer is currently running"); }
+        if(canceled) { throw new IllegalStateException("Timer was canceled"); }
+        Runnable old = this.r;
+        this.r = r;
+        return old;
+    }
+  }
+
+  @Override
+  public void setDelay (long d) {
+    if(d <= 0) { throw new IllegalArgumentException("Delay is not positive"); }
+    synchronized(lock) {
+        if(running) { throw new IllegalStateException("Timer is currently running"); }
+        if(canceled) { throw new IllegalStateException("Timer was canceled"); }
+        delay = d;
+    }
+  }
+
+  @Override
+  public void start () {
+    synchronized(lock) {
+        if(delay <= 0) { throw new IllegalStateException("Delay not set"); }
+        if(r == null) { throw new IllegalStateException("Runnable was not set"); }
+        if(canceled) { throw new IllegalStateException("Timer was canceled"); }
+        if(running) { throw new IllegalStateException("Timer was already started"); }
+        // passes fall on wheel ticks: skip those due less than one delay from now
+        long first = TimingWheel.SHARED.tickOf(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay));
+        task = r;
+        firstDeadline = TimingWheel.SHARED.timeOf(first);
+        running = true;
+        synchronized(GROUPS) {
+            Group g = GROUPS.get(delay);
+            if(g == null) {
+                g = new Group(delay, firstDeadline);
+                GROUPS.put(delay, g);
+                TimingWheel.SHARED.schedule(g, g.deadline);
+            }
+            g.add(this);
+            group = g;
+        }
+    }
+  }
+
+  @Override
+  public void stop () {
+    synchronized(lock) {
+        if(!running) { return; }
+        running = false;
+        synchronized(GROUPS) {
+            Group g = group;
+            group = null;
+            g.remove(this);
+            if(g.size == g.dead) {
+                g.active = false;
+                TimingWheel.SHARED.cancel(g);
+                GROUPS.remove(g.delay);
+            }
+        }
+    }
+    // a pass that checked the timer before it was stopped is over with
+    // it once the tick lock is free; the task itself may already hold it
+    ticking.lock();
+    ticking.unlock();
+  }
+
+  @Override
+  public void cancel () {
+    synchronized(lock) {
+        canceled = true;
+    }
+    stop(); // outside of the lock, since it may wait for a tick
+  }
+}
@@ -0,0 +1,190 @@
+package cs671;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** Timers scheduled on a shared thread pool.  Instances of this class
+ * do not own a thread: all of them are scheduled on a single {@code
+ * ScheduledThreadPoolExecutor} with a small, fixed number of daemon
+ * threads ({@link #POOL_SIZE}).  Starting, stopping or changing the
+ * delay of a timer never creates a thread, and the tasks of stopped
+ * timers are removed from the pool's queue as soon as they are
+ * cancelled.
+ *
+ * <p> Ticks are scheduled at a fixed rate, so the timer does not
+ * drift.  Tasks run on the shared threads and should therefore be
+ * short, like stepping a clock.  Once {@code stop} returns, the task
+ * is not run again until the timer is restarted: {@code stop} waits
+ * for a tick that is under way, unless it is called by the task
+ * itself.  An exception thrown by the task is reported and does not
+ * stop the timer.
+ *
+ * <p> Instances of this class <em>are thread-safe</em> (i.e., a timer
+ * instance can be shared among multiple threads).
+ *
+ * @see UtilClockTimer
+ * @see java.util.concurrent.ScheduledThreadPoolExecutor
+ */
+public class ScheduledClockTimer implements ClockTimer {
+
+    /** Number of threads shared by all the timers */
+    public static final int POOL_SIZE = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /** Pool on which all timers are scheduled */
+    private static final ScheduledThreadPoolExecutor POOL;
+
+    static {
+        POOL = new ScheduledThreadPoolExecutor(POOL_SIZE, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            public Thread newThread (Runnable r) {
+                Thread t = new Thread(r, "ScheduledClockTimer-" + count.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        POOL.setRemoveOnCancelPolicy(true);
+        POOL.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
+    }
+
+    /* Runnable to be called by timer at every <code>delay</code> intervals */
+    private Runnable r;
+    /** Delay interval in between calls to timer, in nanoseconds */
+    private long delay;
+    /** Determines whether or not the timer has been canceled */
+    private boolean canceled = false;
+    /** Current run of the timer, null when stopped */
+    private Run current;
+    /** Held while the task runs, so stop can wait for a tick under way */
+    private final ReentrantLock ticking = new ReentrantLock();
+
+    /* Object which allows for synchronization of lock */
+    private final Object lock;
+
+  /** Creates a new timer.  The timer is initially stopped.
+   * @param r the timer task
+   * @param d the timer delay, in milliseconds
+   */
+  public ScheduledClockTimer (Runnable r, long d) {
+    this.r = r;
+    delay = TimeUnit.MILLISECONDS.toNanos(d);
+    lock = new Object();
+  }
+
+  /** Creates a new timer.  The timer has no task and no delay. */
+  public ScheduledClockTimer () {
+    this(null, 0);
+  }
+
+  /**
+   * One run of the timer.  Each call to start creates a new run, so a
+   * tick that was already under way when the timer was stopped
+   * recognizes that it is stale and does nothing.
+   */
+  private class Run implements Runnable {
+    private final long period;
+    private long deadline;
+    private ScheduledFuture<?> future;
+
+    Run (long period, long deadline) {
+      this.period = period;
+      this.deadline = deadline;
+    }
+
+    @Override
+    public void run () {
+      ticking.lock();
+      try {
+          Runnable task;
+          synchronized(lock) {
+              if(current != this) { return; }
+              task = r;
+          }
+          ClockMetrics.INSTANCE.timerTick(System.nanoTime() - deadline, period);
+          deadline += period;
+          task.run();
+      } catch (RuntimeException ex) {
+          // the pool would silently drop the following ticks
+          System.err.printf("timer task failed: %s%n", ex);
+      } finally {
+          ticking.unlock();
+      }
+    }
+  }
+
+    @Override
+  public boolean isRunning () {
+    synchronized(lock) {
+        return current != null;
+    }
+  }
+
+    @Override
+  public Runnable setRunnable (Runnable r) {
+    synchronized(lock) {
+        if(current != null) { throw new IllegalStateException("Timer is currently running"); }
+        if(canceled) { throw new IllegalStateException("Timer was canceled"); }
+        Runnable old = this.r;
+        this.r = r;
+        return old;
+    }
+  }
+
+    @Override
+  public void setDelay (long d) {
+    setDelay(d, TimeUnit.MILLISECONDS);
+  }
+
+  /** Sets the timer delay, with nanosecond resolution.  Whether short
+   * delays are honored depends on the operating system timers and on
+   * the load of the shared pool.
+   * @see ClockTimer#setDelay(long,TimeUnit)
+   */
+    @Override
+  public void setDelay (long d, TimeUnit unit) {
+    long nanos = unit.toNanos(d);
+    if(nanos <= 0) { throw new IllegalArgumentException("Delay is not positive"); }
+    synchronized(lock) {
+        if(current != null) { throw new IllegalStateException("Timer is currently running"); }
+        if(canceled) { throw new IllegalStateException("Timer was canceled"); }
+        delay = nanos;
+    }
+  }
+
+    @Override
+  public void start () {
+    synchronized(lock) {
+        if(delay <= 0) { throw new IllegalStateException("Delay not set"); }
+        if(r == null) { throw new IllegalStateException("Runnable was not set"); }
+        if(canceled) { throw new IllegalStateException("Timer was canceled"); }
+        if(current != null) { throw new IllegalStateException("Timer was already started"); }
+        Run run = new Run(delay, System.nanoTime() + delay);
+        run.future = POOL.scheduleAtFixedRate(run, delay, delay, TimeUnit.NANOSECONDS);
+        current = run;
+    }
+  }
+
+    @Override
+  public void stop () {
+    synchronized(lock) {
+        if(current == null) { return; }
+        current.future.cancel(false);
+        current = null;
+    }
+    // a tick that passed its check before current was cleared is over
+    // once the tick lock is free; the task itself may already hold it
+    ticking.lock();
+    ticking.unlock();
+  }
+
+    @Override
+  public void cancel () {
+    synchronized(lock) {
+        canceled = true;
+    }
+    stop(); // outside of the lock, since it may wait for a tick
+  }
+}
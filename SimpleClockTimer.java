@@ -1,11 +1,25 @@
 package cs671;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
 /** Simple timers.  This implementation does not rely on more general
  * timers.  Each instance of {@code SimpleClockTimer} has its own
  * thread.  Timers can be stopped and restarted, <em>without switching
  * to a new thread</em>.  The thread is terminated when the timer is
  * canceled.
  *
+ * <p> Ticks follow the monotonic {@code System.nanoTime()} clock and
+ * can optionally be aligned on wall-clock boundaries (see {@link
+ * #setWallAligned}).  The lateness of each tick is recorded (see
+ * {@link #getLastLateness} and {@link #getMaxLateness}) and reported
+ * to {@link ClockMetrics}.
+ *
+ * <p> Once {@code stop} returns, the task is not run again until the
+ * timer is restarted: {@code stop} waits for a tick that is under way,
+ * unless it is called by the task itself.  An exception thrown by the
+ * task is reported and does not stop the timer.
+ *
  * <p> Instances of this class <em>are thread-safe</em> (i.e., a timer
  * instance can be shared among multiple threads).
  *
@@ -18,7 +32,7 @@ public class SimpleClockTimer implements ClockTimer {
     private Runnable r;
     /** Thread which all tasks given to the timer are run on */
     private Thread thr;
-    /** Delay interval in between calls to timer */
+    /** Delay interval in between calls to timer, in nanoseconds */
     private long delay;
 
     /** Determines whether or not the timer is currently running(i.e. stop not called) */
@@ -29,6 +43,23 @@ public class SimpleClockTimer implements ClockTimer {
     private boolean canceled = false;
     /** Handles start being called twice without being stopped */
     private boolean doubleStart = false;
+    /** Incremented by every start and stop, so the timer thread can
+     * tell that the run it was waiting for is over
+     */
+    private int generation;
+    /** Whether ticks are aligned on wall-clock multiples of the delay */
+    private boolean wallAligned = false;
+
+    /** Deadline of the next tick, as a {@code System.nanoTime()} value */
+    private long deadline;
+    /** Lateness of the last tick, in nanoseconds */
+    private long lastLateness;
+    /** Largest lateness observed, in nanoseconds */
+    private long maxLateness;
+    /** Number of ticks executed */
+    private long ticks;
+    /** Held while the task runs, so stop can wait for a tick under way */
+    private final ReentrantLock ticking = new ReentrantLock();
         
     /* Object which allows for synchronization of lock */
     private final Object lock;
@@ -39,7 +70,7 @@ public class SimpleClockTimer implements ClockTimer {
    */
   public SimpleClockTimer (Runnable r, long d) {
     this.r = r;
-    delay = d;
+    delay = TimeUnit.MILLISECONDS.toNanos(d);
     thr = new Thread(new T());
     lock = new Object();
   }
@@ -54,70 +85,117 @@ public class SimpleClockTimer implements ClockTimer {
   
   /**
    * Class T is passed to the thread to run, implements the run method which
-   * performs the task given 
+   * performs the task given.  Ticks are scheduled at absolute
+   * {@code System.nanoTime()} deadlines: each deadline is the previous
+   * one plus the delay, so lateness of one tick does not carry over to
+   * the next ones and wall-clock adjustments have no effect.
    */
   class T implements Runnable {
-    private long saveDelay;
-    private long curDelay;
-    private boolean saveRunning;
-    private boolean saveCanceled;
-    private long startTime;
-    
     @Override
     public void run() {
+      while(true) {
+        Runnable task;
+        long late, period;
         synchronized(lock) {
-            startTime = java.lang.System.currentTimeMillis() + delay;
-        }
-        // Loops to act like a timer
-        while(true) {
-            if(canceled) { return; }
-            // Saves all values for use
-            synchronized(lock) {
-            saveDelay = delay;
-            curDelay = delay;
-            saveRunning = running;
-            saveCanceled = canceled;
-        }
-        // If timer is ready to run i.e. perform given task
-        if(saveRunning) {
-            // Make sure we dont start too early
-            while(java.lang.System.currentTimeMillis() < startTime) {
-                if(saveCanceled) { return; }
-                try {
-                    thr.sleep(curDelay);
-                } catch (Throwable ex) {
-                    startTime = java.lang.System.currentTimeMillis() + delay;
-                    curDelay = startTime - java.lang.System.currentTimeMillis();
+            // Wait for the next deadline, or for someone to call start,
+            // but do not busy wait
+            while(true) {
+                if(canceled) { return; }
+                if(running) {
+                    long wait = deadline - System.nanoTime();
+                    if(wait <= 0) {
+                        late = -wait;
+                        break;
+                    }
+                    int gen = generation;
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(lock, wait);
+                    } catch (InterruptedException ex) {
+                    }
+                    // stopped, and possibly restarted, while waiting: the
+                    // deadline waited for is gone, start over
+                    if(generation != gen) { continue; }
                 }
-                synchronized(lock) {
-                    saveCanceled = canceled;
+                else {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException ex) {
+                    }
                 }
             }
-            synchronized(lock) {
-                saveRunning = running;
-                saveDelay = delay;
-            }
-            // Double check stop hasnt been called
-            if(saveRunning) {
-                r.run();
-                startTime += saveDelay; 
-            }
+            task = r;
+            period = delay;
+            deadline += period;
+            lastLateness = late;
+            if(late > maxLateness) { maxLateness = late; }
+            ticks++;
+            // taken before the lock is released, so a stop that follows
+            // this decision to tick waits for the tick to be over
+            ticking.lock();
         }
-        // Wait for someone to call start, but do not busy wait
-        else {
-            synchronized(lock) {
-                try {
-                    lock.wait(saveDelay);
-                } catch (Exception | Error ex) {
-                }
-                curDelay = delay;
-                startTime = java.lang.System.currentTimeMillis() + delay;
-            }
+        try {
+            ClockMetrics.INSTANCE.timerTick(late, period);
+            task.run();
+        } catch (RuntimeException ex) {
+            // the timer thread is reused by every run: keep it alive
+            System.err.printf("timer task failed: %s%n", ex);
+        } finally {
+            ticking.unlock();
         }
       }
     }
   }
 
+  /** Sets the tick alignment.  By default, the first tick happens one
+   * delay after the timer is started.  When ticks are aligned, the
+   * first tick happens instead on the next wall-clock time (as given
+   * by {@code System.currentTimeMillis()}) that is a multiple of the
+   * delay, e.g., on the next second boundary for a one-second delay,
+   * and every delay after that.  Alignment is computed when the timer
+   * is started; ticks are then driven by the monotonic clock.
+   *
+   * @param aligned true if ticks should be aligned on wall-clock time
+   * @throws IllegalStateException if the timer is currently running or
+   * if it was canceled
+   */
+  public void setWallAligned (boolean aligned) {
+    synchronized(lock) {
+        if(running) { throw new IllegalStateException("Timer is currently running"); }
+        if(canceled) { throw new IllegalStateException("Timer was canceled"); }
+        wallAligned = aligned;
+    }
+  }
+
+  /** Lateness of the last tick: the time between its deadline and the
+   * moment the task was started.
+   * @return lateness in nanoseconds, 0 if there was no tick yet
+   */
+  public long getLastLateness () {
+    synchronized(lock) {
+        return lastLateness;
+    }
+  }
+
+  /** Largest lateness of any tick since the timer was created.  Since
+   * deadlines do not depend on when previous ticks actually ran, a
+   * bounded maximum lateness means that the timer does not drift.
+   * @return maximum lateness in nanoseconds
+   */
+  public long getMaxLateness () {
+    synchronized(lock) {
+        return maxLateness;
+    }
+  }
+
+  /** Number of ticks since the timer was created.
+   * @return the number of times the task was run
+   */
+  public long getTickCount () {
+    synchronized(lock) {
+        return ticks;
+    }
+  }
+
     @Override
   public boolean isRunning () {
     synchronized(lock) {    
@@ -140,12 +218,24 @@ public class SimpleClockTimer implements ClockTimer {
 
     @Override
   public void setDelay (long d) {
-    if(d <= 0) { throw new IllegalArgumentException("Delay is not positive"); }
+    setDelay(d, TimeUnit.MILLISECONDS);
+  }
+
+  /** Sets the timer delay, with nanosecond resolution.  The timer
+   * thread waits for each deadline, so delays much shorter than the
+   * wake-up latency of the operating system (typically tens of
+   * microseconds) are not met; see {@link SpinClockTimer} for those.
+   * @see ClockTimer#setDelay(long,TimeUnit)
+   */
+    @Override
+  public void setDelay (long d, TimeUnit unit) {
+    long nanos = unit.toNanos(d);
+    if(nanos <= 0) { throw new IllegalArgumentException("Delay is not positive"); }
     if(isRunning()) { throw new IllegalStateException("Timer is currently running"); }
     if(canceled) { throw new IllegalStateException("Timer was canceled"); }
     
     synchronized (lock) {
-        delay = d;
+        delay = nanos;
     }
   }
 
@@ -153,20 +243,28 @@ public class SimpleClockTimer implements ClockTimer {
   public void start () {
     if(delay <= 0) { throw new IllegalStateException("Delay not set"); }
     if(canceled) { throw new IllegalStateException("Timer was canceled"); }
-    if(r == null) { throw new IllegalStateException("Timer was canceled"); }
+    if(r == null) { throw new IllegalStateException("Runnable was not set"); }
     if(doubleStart) { throw new IllegalStateException("Start called twice without stop"); }
     
     synchronized(lock) {
+        long now = System.nanoTime();
+        if(wallAligned) {
+            long wall = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+            deadline = now + delay - Math.floorMod(wall, delay);
+        }
+        else {
+            deadline = now + delay;
+        }
         if(!hasBeenStarted) {
             thr.start();
             hasBeenStarted = true;
         }
         else {
-            thr.interrupt();
             lock.notify();
         }
         running = true;
         doubleStart = true;
+        generation++;
     }
   }
 
@@ -175,19 +273,22 @@ public class SimpleClockTimer implements ClockTimer {
     synchronized (lock) {
         running = false;
         doubleStart = false;
+        generation++;
+        lock.notify();
     }
+    // a tick that was decided before the run ended is over once the
+    // tick lock is free; the task itself may already hold it
+    ticking.lock();
+    ticking.unlock();
   }
 
     @Override
   public void cancel () {
     synchronized (lock) {
-        try {
-            thr.interrupt();
-        }
-        catch(Throwable t) {}
-        synchronized(lock){
-            canceled = true;
-        }
+        canceled = true;
+        lock.notify();
     }
+    ticking.lock();
+    ticking.unlock();
   }
 }
\ No newline at end of file
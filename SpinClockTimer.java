@@ -0,0 +1,246 @@
+package cs671;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** High-frequency timers.  Each instance of this class has its own
+ * platform thread, which waits for each tick in two phases: it parks
+ * until shortly before the deadline, then spins until the deadline.
+ * Parking alone wakes up tens of microseconds late on most operating
+ * systems, which is too coarse for delays of a few microseconds (10 to
+ * 100 kHz ticks); spinning meets such deadlines closely, at the cost
+ * of keeping a processor busy.
+ *
+ * <p> The tradeoff is set by the spin threshold (see {@link
+ * #setSpinThreshold}): the thread spins during the last part of each
+ * wait, up to that threshold.  A threshold of 0 never spins and
+ * behaves like {@link VirtualThreadClockTimer} on a platform thread; a
+ * threshold larger than the delay spins all the time and gives the
+ * least jitter.
+ *
+ * <p> Delays can be given in any time unit (see {@link
+ * #setDelay(long,TimeUnit)}).  Ticks are scheduled at absolute
+ * deadlines (the previous deadline plus the delay), so the timer does
+ * not drift; a late task is followed by ticks in quick succession
+ * until the timer catches up.  Timers can be stopped and restarted
+ * without switching to a new thread.  The thread is terminated when
+ * the timer is canceled.  Once {@code stop} returns, the task is not
+ * run again until the timer is restarted: {@code stop} waits for a
+ * tick that is under way, unless it is called by the task itself.  An
+ * exception thrown by the task is reported and does not stop the
+ * timer.
+ *
+ * <p> Instances of this class <em>are thread-safe</em> (i.e., a timer
+ * instance can be shared among multiple threads).
+ *
+ * @see #cancel
+ */
+public class SpinClockTimer implements ClockTimer {
+
+    /** Default spin threshold, in nanoseconds */
+    public static final long DEFAULT_SPIN_THRESHOLD = 100000L;
+
+    /* Runnable to be called by timer at every <code>delay</code> intervals */
+    private Runnable r;
+    /** Delay interval in between calls to timer, in nanoseconds */
+    private long delay;
+    /** Time spent spinning before each deadline, in nanoseconds */
+    private long spin = DEFAULT_SPIN_THRESHOLD;
+    /** Determines whether or not the timer has been canceled */
+    private volatile boolean canceled = false;
+    /** Current run of the timer, null when stopped */
+    private volatile Run current;
+    /** Thread which all tasks given to the timer are run on, started lazily */
+    private Thread thr;
+    /** Held while the task runs, so stop can wait for a tick under way */
+    private final ReentrantLock ticking = new ReentrantLock();
+
+    /* Object which allows for synchronization of lock */
+    private final Object lock;
+
+  /** Creates a new timer.  The timer is initially stopped.
+   * @param r the timer task
+   * @param d the timer delay, in milliseconds
+   */
+  public SpinClockTimer (Runnable r, long d) {
+    this.r = r;
+    delay = TimeUnit.MILLISECONDS.toNanos(d);
+    lock = new Object();
+  }
+
+  /** Creates a new timer.  The timer has no task and no delay. */
+  public SpinClockTimer () {
+    this(null, 0);
+  }
+
+  /**
+   * One run of the timer, from start to stop.  The timer thread
+   * executes runs one after the other and parks in between.  A run
+   * checks that it is still current before each tick while holding the
+   * tick lock, which stop also takes, so a run that was stopped never
+   * ticks again.
+   */
+  private class Run {
+    private final Runnable task;
+    private final long period;
+    private final long spin;
+    private long deadline;
+
+    Run (Runnable task, long period, long spin) {
+      this.task = task;
+      this.period = period;
+      this.spin = spin;
+      this.deadline = System.nanoTime() + period;
+    }
+
+    void run () {
+      while(current == this) {
+        long wait = deadline - System.nanoTime();
+        if(wait > spin) {
+          LockSupport.parkNanos(this, wait - spin); // may return early; loop re-checks
+          continue;
+        }
+        if(wait > 0) {
+          Thread.onSpinWait();
+          continue;
+        }
+        ticking.lock();
+        try {
+            if(current != this) { return; }
+            ClockMetrics.INSTANCE.timerTick(-wait, period);
+            task.run();
+        } catch (RuntimeException ex) {
+            // the timer thread is shared by all the runs: keep it alive
+            System.err.printf("timer task failed: %s%n", ex);
+        } finally {
+            ticking.unlock();
+        }
+        deadline += period;
+      }
+    }
+  }
+
+  /** Body of the timer thread. */
+  private void loop () {
+    while(!canceled) {
+      Run run = current;
+      if(run == null) {
+          LockSupport.park(this);
+      }
+      else {
+          run.run();
+      }
+    }
+  }
+
+  /** Sets the spin threshold.  Before each tick, the timer thread
+   * parks until this much time is left, and spins for the rest.
+   * Larger values reduce the lateness and jitter of ticks but use more
+   * processor time: up to {@code threshold/delay} of one processor.
+   *
+   * @param threshold the spinning time; 0 to never spin
+   * @param unit the unit of {@code threshold}
+   * @throws IllegalArgumentException if the threshold is negative
+   * @throws IllegalStateException if the timer is currently running or
+   * if it was canceled
+   */
+  public void setSpinThreshold (long threshold, TimeUnit unit) {
+    if(threshold < 0) { throw new IllegalArgumentException("Threshold is negative"); }
+    synchronized(lock) {
+        if(current != null) { throw new IllegalStateException("Timer is currently running"); }
+        if(canceled) { throw new IllegalStateException("Timer was canceled"); }
+        spin = unit.toNanos(threshold);
+    }
+  }
+
+  /** The spin threshold.
+   * @return the spinning time before each tick, in nanoseconds
+   * @see #setSpinThreshold
+   */
+  public long getSpinThreshold () {
+    synchronized(lock) {
+        return spin;
+    }
+  }
+
+    @Override
+  public boolean isRunning () {
+    return current != null;
+  }
+
+    @Override
+  public Runnable setRunnable (Runnable r) {
+    synchronized(lock) {
+        if(current != null) { throw new IllegalStateException("Timer is currently running"); }
+        if(canceled) { throw new IllegalStateException("Timer was canceled"); }
+        Runnable old = this.r;
+        this.r = r;
+        return old;
+    }
+  }
+
+    @Override
+  public void setDelay (long d) {
+    setDelay(d, TimeUnit.MILLISECONDS);
+  }
+
+  /** Sets the timer delay, with nanosecond resolution.
+   * @see ClockTimer#setDelay(long,TimeUnit)
+   */
+    @Override
+  public void setDelay (long d, TimeUnit unit) {
+    long nanos = unit.toNanos(d);
+    if(nanos <= 0) { throw new IllegalArgumentException("Delay is not positive"); }
+    synchronized(lock) {
+        if(current != null) { throw new IllegalStateException("Timer is currently running"); }
+        if(canceled) { throw new IllegalStateException("Timer was canceled"); }
+        delay = nanos;
+    }
+  }
+
+    @Override
+  public void start () {
+    synchronized(lock) {
+        if(delay <= 0) { throw new IllegalStateException("Delay not set"); }
+        if(r == null) { throw new IllegalStateException("Runnable was not set"); }
+        if(canceled) { throw new IllegalStateException("Timer was canceled"); }
+        if(current != null) { throw new IllegalStateException("Timer was already started"); }
+        current = new Run(r, delay, spin);
+        if(thr == null) {
+            thr = new Thread(new Runnable() {
+                public void run () {
+                  loop();
+                }
+              }, "SpinClockTimer");
+            thr.setDaemon(true);
+            thr.start();
+        }
+        else {
+            LockSupport.unpark(thr);
+        }
+    }
+  }
+
+    @Override
+  public void stop () {
+    synchronized(lock) {
+        if(current == null) { return; }
+        current = null;
+        LockSupport.unpark(thr);
+    }
+    // a tick that passed its check before current was cleared is over
+    // once the tick lock is free; the task itself may already hold it
+    ticking.lock();
+    ticking.unlock();
+  }
+
+    @Override
+  public void cancel () {
+    synchronized(lock) {
+        canceled = true;
+        if(thr != null) { LockSupport.unpark(thr); }
+    }
+    stop(); // outside of the lock, since it may wait for a tick
+  }
+}
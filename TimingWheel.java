@@ -0,0 +1,314 @@
+package cs671;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/** A hierarchical timing wheel.  Timeouts are kept in two levels of
+ * circular arrays of buckets.  The first level has one bucket per tick
+ * and holds the timeouts due in the current page, a run of {@code
+ * nbBuckets} ticks; the second level has one bucket per page and holds
+ * the timeouts due in the following pages.  When the wheel enters a
+ * page, the timeouts of the second-level bucket of that page are
+ * cascaded into the first level.  Timeouts due even later wait in an
+ * overflow list, which is cascaded each time the second level comes
+ * around.  A single worker thread advances through the ticks, running
+ * the timeouts whose deadline has been reached, so any number of
+ * timeouts, with any delay, are driven by one thread.
+ *
+ * <p> Scheduling and cancelling are constant-time, and a timeout is
+ * moved at most once from the second level to the first.  Bitmaps of
+ * the non-empty buckets let the worker find the next tick with work to
+ * do without looking at the timeouts, so a wakeup costs time
+ * proportional to the timeouts that expire or are cascaded, not to the
+ * timeouts that are scheduled.  The worker sleeps until that tick, so
+ * it does not wake up on every tick when timeouts are far apart.
+ *
+ * <p> Timeouts never run early; they run on the worker thread at most
+ * one tick late (plus the time taken by the timeouts before them).
+ * Timeouts run outside the wheel's lock and may reschedule themselves.
+ *
+ * @see WheelClockTimer
+ */
+final class TimingWheel {
+
+  /** The wheel shared by all {@link WheelClockTimer} instances. */
+  static final TimingWheel SHARED =
+    new TimingWheel(TimeUnit.MILLISECONDS.toNanos(1), 1024, "ClockTimer wheel");
+
+  /** An entry of the wheel.  A timeout is in at most one bucket at a
+   * time; its fields are guarded by the wheel.
+   */
+  abstract static class Timeout {
+    /** Tick at which the timeout expires */
+    private long deadline;
+    private Timeout prev, next;
+    /** Bucket of the timeout, -1 when it is not scheduled */
+    private int slot = -1;
+
+    /** Called on the worker thread when the deadline is reached. */
+    abstract void expire ();
+  }
+
+  private final long tickNanos;
+  /** Number of buckets of each level, and of ticks in a page */
+  private final int n;
+  /** Number of bits of a tick number within its page */
+  private final int bits;
+  private final int mask;
+  /** Buckets of the ticks of the current page in {@code [0, n)},
+   * of the pages in {@code [n, 2n)}, and the overflow list at {@code 2n}
+   */
+  private final Timeout[] buckets;
+  /** Non-empty buckets, one bit per bucket */
+  private final long[] used;
+  private final long origin = System.nanoTime();
+  private final String name;
+
+  /** Next tick to be processed */
+  private long tick;
+  /** Number of scheduled timeouts */
+  private int size;
+  /** Tick until which the worker sleeps, {@code Long.MAX_VALUE} when
+   * it is not waiting for a deadline
+   */
+  private long wakeTick = Long.MAX_VALUE;
+  private Thread worker;
+
+  /** Creates a wheel.  The worker thread is started on first use.
+   * @param tickNanos duration of a tick, in nanoseconds
+   * @param nbBuckets number of buckets of each level; must be a power
+   * of two
+   * @param name name of the worker thread
+   */
+  TimingWheel (long tickNanos, int nbBuckets, String name) {
+    if(Integer.bitCount(nbBuckets) != 1) {
+        throw new IllegalArgumentException("number of buckets must be a power of two");
+    }
+    this.tickNanos = tickNanos;
+    this.n = nbBuckets;
+    this.bits = Integer.numberOfTrailingZeros(nbBuckets);
+    this.mask = nbBuckets - 1;
+    this.buckets = new Timeout[2 * nbBuckets + 1];
+    this.used = new long[(buckets.length + 63) >>> 6];
+    this.name = name;
+  }
+
+  /** Schedules a timeout.  A timeout whose deadline has already passed
+   * runs on the next tick.
+   *
+   * @param t the timeout
+   * @param deadlineNanos deadline, as a {@code System.nanoTime()} value
+   * @throws IllegalStateException if the timeout is already scheduled
+   */
+  synchronized void schedule (Timeout t, long deadlineNanos) {
+    if(t.slot >= 0) { throw new IllegalStateException("timeout already scheduled"); }
+    t.deadline = Math.max(tickOf(deadlineNanos), tick);
+    link(t);
+    if(size++ == 0 && worker == null) {
+        worker = new Thread(new Worker(), name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+    if(t.deadline < wakeTick) {
+        notifyAll(); // earlier than the worker planned to wake up
+    }
+  }
+
+  /** The first tick at or after a time, i.e., the tick on which a
+   * timeout with that deadline expires.
+   * @param nanos a {@code System.nanoTime()} value
+   * @return the tick number
+   */
+  long tickOf (long nanos) {
+    long d = nanos - origin;
+    return (d <= 0) ? 0 : (d + tickNanos - 1) / tickNanos; // never early
+  }
+
+  /** The start of a tick.
+   * @param tick a tick number
+   * @return the time of the tick, as a {@code System.nanoTime()} value
+   */
+  long timeOf (long tick) {
+    return origin + tick * tickNanos;
+  }
+
+  /** Removes a timeout from the wheel.
+   * @return true iff the timeout was scheduled
+   */
+  synchronized boolean cancel (Timeout t) {
+    if(t.slot < 0) { return false; }
+    unlink(t);
+    size--;
+    return true;
+  }
+
+  /** Adds a timeout to the bucket of its deadline: the bucket of its
+   * tick if it is due in the current page, that of its page if it is
+   * due in one of the next {@code n - 1} pages, and the overflow list
+   * otherwise.  Deadlines are never before {@code tick}.
+   */
+  private void link (Timeout t) {
+    long page = t.deadline >>> bits;
+    long cur = tick >>> bits;
+    int s;
+    if(page == cur) {
+        s = (int)(t.deadline & mask);
+    }
+    else if(page - cur < n) {
+        s = n + (int)(page & mask);
+    }
+    else {
+        s = 2 * n;
+    }
+    t.slot = s;
+    t.prev = null;
+    t.next = buckets[s];
+    if(t.next != null) { t.next.prev = t; }
+    buckets[s] = t;
+    used[s >>> 6] |= 1L << s;
+  }
+
+  private void unlink (Timeout t) {
+    int s = t.slot;
+    if(t.prev != null) {
+        t.prev.next = t.next;
+    }
+    else {
+        buckets[s] = t.next;
+        if(t.next == null) { used[s >>> 6] &= ~(1L << s); }
+    }
+    if(t.next != null) { t.next.prev = t.prev; }
+    t.prev = t.next = null;
+    t.slot = -1;
+  }
+
+  /** Empties a bucket, putting each of its timeouts in the bucket that
+   * now corresponds to its deadline.
+   */
+  private void cascade (int s) {
+    Timeout t = buckets[s];
+    buckets[s] = null;
+    used[s >>> 6] &= ~(1L << s);
+    while(t != null) {
+        Timeout next = t.next;
+        link(t);
+        t = next;
+    }
+  }
+
+  /** The first non-empty bucket in {@code [from, to)}.
+   * @return the bucket, or -1 if they are all empty
+   */
+  private int nextUsed (int from, int to) {
+    if(from >= to) { return -1; }
+    int w = from >>> 6;
+    long word = used[w] & (-1L << from);
+    while(true) {
+        if(word != 0L) {
+            int s = (w << 6) + Long.numberOfTrailingZeros(word);
+            return (s < to) ? s : -1;
+        }
+        if(++w > (to - 1) >>> 6) { return -1; }
+        word = used[w];
+    }
+  }
+
+  /** The next tick at which the worker has something to do: the
+   * deadline of the first timeout of the current page or, if there is
+   * none, the start of the first page with timeouts to cascade.  Must
+   * be called with at least one timeout scheduled.
+   */
+  private long nextDeadline () {
+    int s = nextUsed((int)(tick & mask), n);
+    if(s >= 0) { return (tick & ~(long)mask) + s; }
+    long cur = tick >>> bits;
+    long page = Long.MAX_VALUE;
+    // the bucket of the current page is empty: it was cascaded
+    int c = (int)(cur & mask);
+    s = nextUsed(n + c + 1, 2 * n);
+    if(s < 0) { s = nextUsed(n, n + c); }
+    if(s >= 0) { page = cur + ((s - n - c) & mask); }
+    if(buckets[2 * n] != null) { page = Math.min(page, (cur | mask) + 1); }
+    return page << bits;
+  }
+
+  /** Enters the page that starts at {@code tick}: the overflow list,
+   * when the second level comes around, and then the bucket of the
+   * page are cascaded.
+   */
+  private void enterPage () {
+    long page = tick >>> bits;
+    if((page & mask) == 0) { cascade(2 * n); }
+    cascade(n + (int)(page & mask));
+  }
+
+  /** Processes the ticks up to {@code now}, moving the timeouts that
+   * are due to {@code out}.  Ticks without timeouts are skipped, a
+   * page at a time.  The page of {@code tick} is always entered, even
+   * before its first tick is processed, so that the timeouts due in it
+   * are all in the first level.
+   */
+  private void advance (long now, ArrayList<Timeout> out) {
+    while(tick <= now) {
+        long end = Math.min(now, tick | mask);
+        int s = nextUsed((int)(tick & mask), (int)(end & mask) + 1);
+        if(s < 0) {
+            tick = end + 1;
+        }
+        else {
+            Timeout t = buckets[s];
+            buckets[s] = null;
+            used[s >>> 6] &= ~(1L << s);
+            while(t != null) {
+                Timeout next = t.next;
+                t.prev = t.next = null;
+                t.slot = -1;
+                size--;
+                out.add(t);
+                t = next;
+            }
+            tick = (tick & ~(long)mask) + s + 1;
+        }
+        if((tick & mask) == 0) { enterPage(); }
+    }
+  }
+
+  private class Worker implements Runnable {
+    private final ArrayList<Timeout> expired = new ArrayList<Timeout>();
+
+    public void run () {
+      while(true) {
+        synchronized(TimingWheel.this) {
+          try {
+            while(size == 0) {
+                TimingWheel.this.wait();
+            }
+            long elapsed = System.nanoTime() - origin;
+            long now = elapsed / tickNanos;
+            long next = nextDeadline();
+            if(now < next) {
+                wakeTick = next;
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(TimingWheel.this, next * tickNanos - elapsed);
+                } finally {
+                    wakeTick = Long.MAX_VALUE;
+                }
+                continue;
+            }
+            advance(now, expired);
+          } catch (InterruptedException e) {
+            continue; // the worker is never stopped
+          }
+        }
+        for(int i = 0; i < expired.size(); i++) {
+          try {
+            expired.get(i).expire();
+          } catch (RuntimeException e) {
+            System.err.printf("timer task failed: %s%n", e);
+          }
+        }
+        expired.clear();
+      }
+    }
+  }
+}
@@ -2,12 +2,16 @@ package cs671;
 
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
 
 /** Simple wrapping on general-purpose timers.  This implementation
  * relies on {@code java.util.Timer} and adapts it to the
  * specification of {@code ClockTimer}.  Timers can be stopped and
- * restarted, <em>without switching to a new thread</em>.  The thread
- * is terminated when the timer is cancelled.
+ * restarted, and their delay changed, <em>without switching to a new
+ * thread</em>.  The thread is terminated when the timer is cancelled.
+ * See {@link ScheduledClockTimer} for timers that share their threads.
+ * An exception thrown by the task is reported and does not stop the
+ * timer.
  *
  * <p>Instances of the class <em>are not thread-safe</em> (i.e., a
  * timer instance should not be shared among multiple threads).
@@ -16,6 +20,7 @@ import java.util.TimerTask;
  * @version 3.1, 2/12/13
  * @see #cancel
  * @see java.util.Timer
+ * @see ScheduledClockTimer
  */
 public class UtilClockTimer implements ClockTimer {
     /** Util timer that schedules tasks to be run, and plays catch up if need be*/
@@ -25,8 +30,6 @@ public class UtilClockTimer implements ClockTimer {
     /* Runnable to be called by timer at every <code>delay</code> intervals */
     private Runnable r;
     
-    /** Determines whether or not the timer has ever been started */
-    private boolean started = false;
     /** Determines whether or not the timer has ever been started without being stopped */
     private boolean hasStarted = false;
     
@@ -38,7 +41,7 @@ public class UtilClockTimer implements ClockTimer {
     /* Object which allows for synchronization of lock */
     private final Object lock;
     
-    /* Saves task timer is running in case it needs to be canceled */
+    /* Task of the current run, null when stopped; each start schedules a new one */
     private TimerTask oldTask;
     
   /** Creates a new timer.  The timer is initially stopped.
@@ -68,8 +71,16 @@ public class UtilClockTimer implements ClockTimer {
     public void run() {
         synchronized(lock) {
             if(canceled) { return; }
-            if(running) {
-                r.run();
+            if(running && oldTask == this) { // not a task of a previous run
+                long late = System.currentTimeMillis() - scheduledExecutionTime();
+                ClockMetrics.INSTANCE.timerTick(TimeUnit.MILLISECONDS.toNanos(late),
+                                                TimeUnit.MILLISECONDS.toNanos(delay));
+                try {
+                    r.run();
+                } catch (RuntimeException ex) {
+                    // it would kill the thread of the java.util.Timer
+                    System.err.printf("timer task failed: %s%n", ex);
+                }
             }
         }
     }
@@ -95,20 +106,12 @@ public class UtilClockTimer implements ClockTimer {
 
     @Override
   public void setDelay (long d) {
-    if(d < 0) { throw new IllegalArgumentException("Delay is not positive"); }
+    if(d <= 0) { throw new IllegalArgumentException("Delay is not positive"); }
     if(isRunning()) { throw new IllegalStateException("Timer is currently running"); }
     if(canceled) { throw new IllegalStateException("Timer was canceled"); }
     
     synchronized(lock) {
-        t.cancel();
-        t = null;
         delay = d;
-        t = new Timer();
-        if(oldTask != null) {
-            oldTask.cancel();
-        }
-        oldTask = new Task();
-        t.scheduleAtFixedRate(oldTask, delay, delay);
     }
   }
 
@@ -119,18 +122,11 @@ public class UtilClockTimer implements ClockTimer {
     if(canceled) { throw new IllegalStateException("Timer was canceled"); }
     if(hasStarted) { throw new IllegalStateException("Timer was already started"); }
     
-    if(!started) {
-        synchronized(lock) {
-            if(oldTask != null) {
-                oldTask.cancel();
-            }
-            oldTask = new Task();
-            if(delay <= 0) { throw new IllegalStateException("Delay is 0"); }
-            t.scheduleAtFixedRate(oldTask, delay, delay);
-        }
-    }
     synchronized(lock) {
-        started = true;
+        if(delay <= 0) { throw new IllegalStateException("Delay is 0"); }
+        // a new task, so the first tick is one full delay from now
+        oldTask = new Task();
+        t.scheduleAtFixedRate(oldTask, delay, delay);
         running = true;
         hasStarted = true;
     }
@@ -141,6 +137,11 @@ public class UtilClockTimer implements ClockTimer {
     synchronized(lock) {
         running = false;
         hasStarted = false;
+        if(oldTask != null) {
+            oldTask.cancel();
+            oldTask = null;
+            t.purge(); // keep the queue from filling with cancelled tasks
+        }
     }
   }
 
@@ -0,0 +1,224 @@
+package cs671;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** Timers running on virtual threads.  Each run of the timer (from
+ * {@code start} to {@code stop}) has its own virtual thread, created
+ * when the timer is started rather than when it is constructed.  A
+ * virtual thread waiting for its next tick is parked and costs only a
+ * small heap object, so a thread per timer scales to very large
+ * numbers of clocks.
+ *
+ * <p> Virtual threads require Java 21 or later.  On older runtimes
+ * (see {@link #isVirtual}), a thread per timer does not scale, and
+ * this class falls back to a {@link ScheduledClockTimer}, i.e., to a
+ * small pool shared by all timers.  The waiting thread parks instead
+ * of using monitors, so it never pins its carrier thread.
+ *
+ * <p> Ticks are scheduled at absolute deadlines (the previous deadline
+ * plus the delay), so the timer does not drift.  Once {@code stop}
+ * returns, the task is not run again until the timer is restarted:
+ * {@code stop} waits for a tick that is under way, unless it is called
+ * by the task itself.  An exception thrown by the task is reported and
+ * does not stop the timer.
+ *
+ * <p> Instances of this class <em>are thread-safe</em> (i.e., a timer
+ * instance can be shared among multiple threads).
+ */
+public class VirtualThreadClockTimer implements ClockTimer {
+
+    /** Factory for the timer threads, null if the runtime has no virtual threads */
+    private static final ThreadFactory THREADS;
+
+    static {
+        ThreadFactory f;
+        try {
+            // Thread.ofVirtual().name("ClockTimer-", 0).factory(), when available
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> b = Class.forName("java.lang.Thread$Builder");
+            builder = b.getMethod("name", String.class, long.class).invoke(builder, "ClockTimer-", 0L);
+            f = (ThreadFactory) b.getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            f = null;
+        }
+        THREADS = f;
+    }
+
+    /* Runnable to be called by timer at every <code>delay</code> intervals */
+    private Runnable r;
+    /** Delay interval in between calls to timer, in nanoseconds */
+    private long delay;
+    /** Determines whether or not the timer has been canceled */
+    private boolean canceled = false;
+    /** Current run of the timer, null when stopped */
+    private volatile Run current;
+    /** Held while the task runs, so stop can wait for a tick under way */
+    private final ReentrantLock ticking = new ReentrantLock();
+    /** Timer doing all the work when there are no virtual threads */
+    private final ScheduledClockTimer fallback;
+
+    /* Object which allows for synchronization of lock */
+    private final Object lock;
+
+  /** Creates a new timer.  The timer is initially stopped.
+   * @param r the timer task
+   * @param d the timer delay, in milliseconds
+   */
+  public VirtualThreadClockTimer (Runnable r, long d) {
+    this.r = r;
+    delay = TimeUnit.MILLISECONDS.toNanos(d);
+    lock = new Object();
+    fallback = (THREADS == null) ? new ScheduledClockTimer(r, d) : null;
+  }
+
+  /** Creates a new timer.  The timer has no task and no delay. */
+  public VirtualThreadClockTimer () {
+    this(null, 0);
+  }
+
+  /** Whether timers of this class run on virtual threads.
+   * @return true iff the runtime supports virtual threads; if not,
+   * timers run on the pool of {@link ScheduledClockTimer}
+   */
+  public static boolean isVirtual () {
+    return THREADS != null;
+  }
+
+  /**
+   * One run of the timer, executed by its own thread.  The run ends
+   * as soon as it is no longer the current run of the timer.  This is
+   * checked before each tick while holding the tick lock, which stop
+   * also takes, so a run that was stopped (and possibly replaced by a
+   * new one) never ticks again.
+   */
+  private class Run implements Runnable {
+    private final Runnable task;
+    private final long period;
+    private long deadline;
+    private Thread thread;
+
+    Run (Runnable task, long period) {
+      this.task = task;
+      this.period = period;
+      this.deadline = System.nanoTime() + period;
+    }
+
+    @Override
+    public void run () {
+      while(current == this) {
+        long wait = deadline - System.nanoTime();
+        if(wait > 0) {
+          LockSupport.parkNanos(this, wait); // may return early; loop re-checks
+          continue;
+        }
+        ticking.lock();
+        try {
+            if(current != this) { return; }
+            ClockMetrics.INSTANCE.timerTick(-wait, period);
+            task.run();
+        } catch (RuntimeException ex) {
+            System.err.printf("timer task failed: %s%n", ex);
+        } finally {
+            ticking.unlock();
+        }
+        deadline += period;
+      }
+    }
+  }
+
+    @Override
+  public boolean isRunning () {
+    if(fallback != null) { return fallback.isRunning(); }
+    return current != null;
+  }
+
+    @Override
+  public Runnable setRunnable (Runnable r) {
+    if(fallback != null) { return fallback.setRunnable(r); }
+    synchronized(lock) {
+        if(current != null) { throw new IllegalStateException("Timer is currently running"); }
+        if(canceled) { throw new IllegalStateException("Timer was canceled"); }
+        Runnable old = this.r;
+        this.r = r;
+        return old;
+    }
+  }
+
+    @Override
+  public void setDelay (long d) {
+    setDelay(d, TimeUnit.MILLISECONDS);
+  }
+
+  /** Sets the timer delay, with nanosecond resolution.  The timer
+   * thread parks until each deadline, so delays much shorter than the
+   * wake-up latency of the operating system (typically tens of
+   * microseconds) are not met; see {@link SpinClockTimer} for those.
+   * @see ClockTimer#setDelay(long,TimeUnit)
+   */
+    @Override
+  public void setDelay (long d, TimeUnit unit) {
+    if(fallback != null) {
+        fallback.setDelay(d, unit);
+        return;
+    }
+    long nanos = unit.toNanos(d);
+    if(nanos <= 0) { throw new IllegalArgumentException("Delay is not positive"); }
+    synchronized(lock) {
+        if(current != null) { throw new IllegalStateException("Timer is currently running"); }
+        if(canceled) { throw new IllegalStateException("Timer was canceled"); }
+        delay = nanos;
+    }
+  }
+
+    @Override
+  public void start () {
+    if(fallback != null) {
+        fallback.start();
+        return;
+    }
+    synchronized(lock) {
+        if(delay <= 0) { throw new IllegalStateException("Delay not set"); }
+        if(r == null) { throw new IllegalStateException("Runnable was not set"); }
+        if(canceled) { throw new IllegalStateException("Timer was canceled"); }
+        if(current != null) { throw new IllegalStateException("Timer was already started"); }
+        Run run = new Run(r, delay);
+        run.thread = THREADS.newThread(run);
+        current = run;
+        run.thread.start();
+    }
+  }
+
+    @Override
+  public void stop () {
+    if(fallback != null) {
+        fallback.stop();
+        return;
+    }
+    Run run;
+    synchronized(lock) {
+        run = current;
+        if(run == null) { return; }
+        current = null;
+    }
+    LockSupport.unpark(run.thread); // lets the thread terminate now
+    // a tick that passed its check before current was cleared is over
+    // once the tick lock is free; the task itself may already hold it
+    ticking.lock();
+    ticking.unlock();
+  }
+
+    @Override
+  public void cancel () {
+    if(fallback != null) {
+        fallback.cancel();
+        return;
+    }
+    synchronized(lock) {
+        canceled = true;
+    }
+    stop(); // outside of the lock, since it may wait for a tick
+  }
+}
@@ -0,0 +1,166 @@
+package cs671;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** Timers multiplexed on a shared timing wheel.  Instances of this
+ * class do not own a thread: all of them are driven by the single
+ * worker thread of a hashed timing wheel, so thousands of active
+ * clocks cost one thread.  Tasks run on that shared thread and
+ * should therefore be short, like stepping a clock.
+ *
+ * <p> Ticks are scheduled at absolute deadlines (the previous
+ * deadline plus the delay), so the timer does not drift; a tick runs
+ * at most one wheel tick (one millisecond) late, plus the time taken
+ * by other tasks due at the same time.  For the same reason, delays
+ * are whole milliseconds: finer delays are rejected by {@link
+ * #setDelay(long,TimeUnit)} (see {@link SpinClockTimer} for those).
+ * Once {@code stop} returns, the task is not run again until the
+ * timer is restarted: {@code stop} waits for a tick that is under
+ * way, unless it is called by the task itself.  An exception thrown
+ * by the task is reported by the wheel and does not stop the timer.
+ *
+ * <p> Instances of this class <em>are thread-safe</em> (i.e., a timer
+ * instance can be shared among multiple threads).
+ *
+ * @see TimingWheel
+ */
+public class WheelClockTimer implements ClockTimer {
+    /** Wheel on which the timer is scheduled */
+    private final TimingWheel wheel;
+    /* Runnable to be called by timer at every <code>delay</code> intervals */
+    private Runnable r;
+    /** Delay interval in between calls to timer */
+    private long delay;
+
+    /** Determines whether or not the timer is currently running(i.e. stop not called) */
+    private boolean running = false;
+    /** Determines whether or not the timer has been canceled */
+    private boolean canceled = false;
+    /** Pending tick of the current run, null when stopped */
+    private Tick current;
+    /** Held while the task runs, so stop can wait for a tick under way */
+    private final ReentrantLock ticking = new ReentrantLock();
+
+    /* Object which allows for synchronization of lock */
+    private final Object lock;
+
+  /** Creates a new timer.  The timer is initially stopped.
+   * @param r the timer task
+   * @param d the timer delay, in milliseconds
+   */
+  public WheelClockTimer (Runnable r, long d) {
+    this.r = r;
+    delay = d;
+    wheel = TimingWheel.SHARED;
+    lock = new Object();
+  }
+
+  /** Creates a new timer.  The timer has no task and no delay. */
+  public WheelClockTimer () {
+    this(null, 0);
+  }
+
+  /**
+   * A tick of one run of the timer.  Each call to start creates a new
+   * tick, so a tick that was already taken off the wheel when the timer
+   * was stopped recognizes that it is stale and does nothing.  This is
+   * checked while holding the tick lock, which stop also takes.
+   */
+  private class Tick extends TimingWheel.Timeout {
+    private final long period;
+    private long deadline;
+
+    Tick (long period, long deadline) {
+      this.period = period;
+      this.deadline = deadline;
+    }
+
+    @Override
+    void expire () {
+      ticking.lock();
+      try {
+          Runnable task;
+          synchronized(lock) {
+              if(current != this) { return; }
+              task = r;
+          }
+          ClockMetrics.INSTANCE.timerTick(System.nanoTime() - deadline, period);
+          task.run();
+      } finally {
+          // also after a failed task, since the timer is still running
+          synchronized(lock) {
+              if(current == this) {
+                  deadline += period;
+                  wheel.schedule(this, deadline);
+              }
+          }
+          ticking.unlock();
+      }
+    }
+  }
+
+  @Override
+  public boolean isRunning () {
+    synchronized(lock) {
+        return running;
+    }
+  }
+
+  @Override
+  public Runnable setRunnable (Runnable r) {
+    synchronized(lock) {
+        if(running) { throw new IllegalStateException("Timer is currently running"); }
+        if(canceled) { throw new IllegalStateException("Timer was canceled"); }
+        Runnable old = this.r;
+        this.r = r;
+        return old;
+    }
+  }
+
+  @Override
+  public void setDelay (long d) {
+    if(d <= 0) { throw new IllegalArgumentException("Delay is not positive"); }
+    synchronized(lock) {
+        if(running) { throw new IllegalStateException("Timer is currently running"); }
+        if(canceled) { throw new IllegalStateException("Timer was canceled"); }
+        delay = d;
+    }
+  }
+
+  @Override
+  public void start () {
+    synchronized(lock) {
+        if(delay <= 0) { throw new IllegalStateException("Delay not set"); }
+        if(r == null) { throw new IllegalStateException("Runnable was not set"); }
+        if(canceled) { throw new IllegalStateException("Timer was canceled"); }
+        if(running) { throw new IllegalStateException("Timer was already started"); }
+        long period = TimeUnit.MILLISECONDS.toNanos(delay);
+        current = new Tick(period, System.nanoTime() + period);
+        wheel.schedule(current, current.deadline);
+        running = true;
+    }
+  }
+
+  @Override
+  public void stop () {
+    synchronized(lock) {
+        if(current == null) { return; }
+        wheel.cancel(current);
+        current = null;
+        running = false;
+    }
+    // a tick that passed its check before current was cleared is over
+    // once the tick lock is free; the task itself may already hold it
+    ticking.lock();
+    ticking.unlock();
+  }
+
+  @Override
+  public void cancel () {
+    synchronized(lock) {
+        canceled = true;
+    }
+    stop(); // outside of the lock, since it may wait for a tick
+  }
+}
@@ -0,0 +1,209 @@
+package cs671;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
+
+/** Microbenchmarks of the {@link Clock} hot path.  Every operation
+ * is measured for every combination of clock width and number of
+ * registered observers, so that any change to {@code Clock} can be
+ * compared against a baseline.
+ *
+ * <p> Each measurement runs a few warm-up iterations, then several
+ * timed iterations of a fixed duration, and reports the mean time per
+ * operation with its standard deviation over the timed iterations.
+ * Results are printed as a table, or as CSV lines with {@code -csv}
+ * so that runs can be diffed.
+ *
+ * <p> Usage: {@code ClockBenchmark [-op <name>,...] [-bits <n>,...]
+ * [-observers <n>,...] [-warmup <iterations>] [-iterations
+ * <iterations>] [-time <millis per iteration>] [-csv]}.  By default,
+ * all operations are measured with 8, 64, 1024 and 1048576 bits and 0,
+ * 1 and 8 observers.
+ */
+public class ClockBenchmark {
+
+  private static volatile long sink;
+
+  private ClockBenchmark () {}
+
+  /** A benchmarked operation. */
+  private abstract static class Op {
+    final String name;
+
+    Op (String name) {
+      this.name = name;
+    }
+
+    /** Prepares the clock before measurement. */
+    void setUp (Clock c) {}
+
+    /** Runs the operation once.
+     * @param i iteration number
+     * @return a value that depends on the result, to be consumed
+     */
+    abstract long run (Clock c, long i);
+  }
+
+  private static final Op[] OPS = {
+    new Op("stepForward") {
+      long run (Clock c, long i) {
+        c.step();
+        return 0;
+      }
+    },
+    new Op("stepBackward") {
+      void setUp (Clock c) {
+        c.setDirection(Clock.Direction.BACKWARD);
+      }
+      long run (Clock c, long i) {
+        c.step();
+        return 0;
+      }
+    },
+    new Op("getBit") {
+      long run (Clock c, long i) {
+        return c.getBit((int)(i % c.size())) ? 1 : 0;
+      }
+    },
+    new Op("setBit") {
+      long run (Clock c, long i) {
+        int n = (int)(i % c.size());
+        return (c.setBit(n) ? 1 : 0) + (c.clearBit(n) ? 1 : 0);
+      }
+    },
+    new Op("nextBit") {
+      long run (Clock c, long i) {
+        return c.nextBit((int)(i % c.size())) ? 1 : 0;
+      }
+    },
+    new Op("getValue") {
+      long run (Clock c, long i) {
+        return c.getValue().length;
+      }
+    },
+    new Op("getLongValue") {
+      void setUp (Clock c) {
+        c.setLongValue(1L);
+      }
+      long run (Clock c, long i) {
+        return c.getLongValue();
+      }
+    },
+    new Op("setLongValue") {
+      long run (Clock c, long i) {
+        c.setLongValue(i & 1L);
+        return 0;
+      }
+    },
+    new Op("toString") {
+      long run (Clock c, long i) {
+        return c.toString().length();
+      }
+    },
+  };
+
+  /** Measures one configuration.
+   * @return the mean and standard deviation, in nanoseconds per
+   * operation
+   */
+  private static double[] measure (Op op, int bits, int observers,
+                                    int warmup, int iterations, long millis) {
+    Clock c = new Clock(bits);
+    final long[] notified = new long[1];
+    for (int k = 0; k < observers; k++) {
+      c.addObserver(new Observer() {
+          public void update (Observable o, Object arg) {
+            notified[0]++;
+          }
+        });
+    }
+    op.setUp(c);
+    long i = 0;
+    double[] results = new double[iterations];
+    for (int it = -warmup; it < iterations; it++) {
+      long acc = 0, count = 0;
+      long t0 = System.nanoTime();
+      long end = t0 + millis * 1000000L;
+      long t;
+      do {
+        for (int k = 0; k < 16; k++)
+          acc += op.run(c, i++);
+        count += 16;
+      } while ((t = System.nanoTime()) < end);
+      sink += acc;
+      if (it >= 0)
+        results[it] = (double)(t - t0) / count;
+    }
+    sink += notified[0];
+    double mean = 0, var = 0;
+    for (double r : results)
+      mean += r / iterations;
+    for (double r : results)
+      var += (r - mean) * (r - mean) / iterations;
+    return new double[] { mean, Math.sqrt(var) };
+  }
+
+  private static int[] ints (String list) {
+    String[] s = list.split(",");
+    int[] r = new int[s.length];
+    for (int i = 0; i < s.length; i++)
+      r[i] = Integer.parseInt(s[i].trim());
+    return r;
+  }
+
+  /** Runs the benchmarks.
+   * @param args command line parameters
+   */
+  public static void main (String[] args) {
+    int[] bits = { 8, 64, 1024, 1 << 20 };
+    int[] observers = { 0, 1, 8 };
+    List<String> names = null;
+    int warmup = 3, iterations = 5;
+    long millis = 200;
+    boolean csv = false;
+    for (int a = 0; a < args.length; a++) {
+      String arg = args[a];
+      if (arg.equals("-csv"))
+        csv = true;
+      else if (a + 1 == args.length)
+        throw new IllegalArgumentException("missing value for " + arg);
+      else if (arg.equals("-op"))
+        names = Arrays.asList(args[++a].split(","));
+      else if (arg.equals("-bits"))
+        bits = ints(args[++a]);
+      else if (arg.equals("-observers"))
+        observers = ints(args[++a]);
+      else if (arg.equals("-warmup"))
+        warmup = Integer.parseInt(args[++a]);
+      else if (arg.equals("-iterations"))
+        iterations = Integer.parseInt(args[++a]);
+      else if (arg.equals("-time"))
+        millis = Long.parseLong(args[++a]);
+      else
+        throw new IllegalArgumentException("unknown option " + arg);
+    }
+    List<Op> ops = new ArrayList<Op>();
+    for (Op op : OPS)
+      if (names == null || names.contains(op.name))
+        ops.add(op);
+
+    if (csv)
+      System.out.println("op,bits,observers,ns_per_op,stddev");
+    else
+      System.out.printf("%-14s %9s %9s %14s %10s%n", "op", "bits", "observers", "ns/op", "stddev");
+    for (Op op : ops) {
+      for (int b : bits) {
+        for (int o : observers) {
+          double[] r = measure(op, b, o, warmup, iterations, millis);
+          if (csv)
+            System.out.printf("%s,%d,%d,%.2f,%.2f%n", op.name, b, o, r[0], r[1]);
+          else
+            System.out.printf("%-14s %9d %9d %14.2f %10.2f%n", op.name, b, o, r[0], r[1]);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,132 @@
+package cs671;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Contention benchmark for clock reads.  One writer thread steps the
+ * clock as fast as it can while a growing number of reader threads
+ * query it with {@code getLongValue} and {@code getBit}.  Reader and
+ * writer throughput are reported side by side for three clocks:
+ * <ul>
+ * <li> a monitor baseline, a {@code Clock} whose reads take the clock
+ * lock, as all reads did before {@code Clock} switched to optimistic
+ * reads;
+ * <li> {@link Clock}, whose writers take the lock and whose readers
+ * read optimistically without locking;
+ * <li> {@link AtomicClock}, which never locks.
+ * </ul>
+ *
+ * <p> Usage: {@code ClockContentionBenchmark [<#bits> [<max readers>
+ * [<millis per run>]]]}.  Defaults are 32 bits, one reader per
+ * available processor and 1000 milliseconds.
+ */
+public class ClockContentionBenchmark {
+
+  private static volatile long sink;
+
+  private ClockContentionBenchmark () {}
+
+  /** The monitor baseline: reads are serialized with writes. */
+  private static class MonitorClock extends Clock {
+    MonitorClock (int nbBits) {
+      super(nbBits);
+    }
+
+    @Override public boolean getBit (int n) {
+      synchronized (lock) {
+        return super.getBit(n);
+      }
+    }
+
+    @Override public long getLongValue () {
+      synchronized (lock) {
+        return super.getLongValue();
+      }
+    }
+  }
+
+  /** Runs one measurement.
+   * @return reader operations and writer steps per second
+   */
+  private static long[] run (final Clock clock, int readers, long millis)
+    throws InterruptedException {
+    final AtomicBoolean done = new AtomicBoolean();
+    final LongAdder reads = new LongAdder();
+    final LongAdder steps = new LongAdder();
+    final CountDownLatch go = new CountDownLatch(1);
+    final int n = clock.size();
+    Thread[] threads = new Thread[readers + 1];
+    threads[0] = new Thread(new Runnable() {
+        public void run () {
+          await(go);
+          long k = 0;
+          while (!done.get()) {
+            clock.step();
+            k++;
+          }
+          steps.add(k);
+        }
+      });
+    for (int i = 1; i <= readers; i++) {
+      threads[i] = new Thread(new Runnable() {
+          public void run () {
+            await(go);
+            long k = 0, acc = 0;
+            while (!done.get()) {
+              acc += clock.getLongValue();
+              if (clock.getBit((int)(k % n)))
+                acc++;
+              k++;
+            }
+            sink = acc;
+            reads.add(k);
+          }
+        });
+    }
+    for (Thread t : threads)
+      t.start();
+    long t0 = System.nanoTime();
+    go.countDown();
+    Thread.sleep(millis);
+    done.set(true);
+    for (Thread t : threads)
+      t.join();
+    double secs = (System.nanoTime() - t0) / 1e9;
+    return new long[] { (long)(reads.sum() / secs), (long)(steps.sum() / secs) };
+  }
+
+  private static void await (CountDownLatch l) {
+    try {
+      l.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Runs the benchmark.
+   * @param args command line parameters
+   */
+  public static void main (String[] args) throws InterruptedException {
+    int bits = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+    int max = args.length > 1 ? Integer.parseInt(args[1])
+      : Runtime.getRuntime().availableProcessors();
+    long millis = args.length > 2 ? Long.parseLong(args[2]) : 1000L;
+
+    // warm up all implementations before measuring
+    run(new MonitorClock(bits), max, millis);
+    run(new Clock(bits), max, millis);
+    run(new AtomicClock(bits), max, millis);
+
+    System.out.printf("%8s %18s %18s %18s %18s %18s %18s%n", "readers",
+                      "Monitor reads/s", "Monitor steps/s",
+                      "Clock reads/s", "Clock steps/s",
+                      "Atomic reads/s", "Atomic steps/s");
+    for (int r = 1; r <= max; r = (r < max && r * 2 > max) ? max : r * 2) {
+      long[] b = run(new MonitorClock(bits), r, millis);
+      long[] m = run(new Clock(bits), r, millis);
+      long[] a = run(new AtomicClock(bits), r, millis);
+      System.out.printf("%8d %18d %18d %18d %18d %18d %18d%n", r, b[0], b[1], m[0], m[1], a[0], a[1]);
+    }
+  }
+}
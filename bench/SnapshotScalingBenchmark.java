@@ -0,0 +1,111 @@
+package cs671;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Reader scaling of clock snapshots.  One writer thread steps a
+ * clock continuously while 1 to N reader threads take consistent
+ * multi-bit reads of it, either with {@link Clock#snapshot} (optimistic,
+ * lock-free) or while owning the clock lock, as readers did before
+ * snapshots existed.  Reader throughput and writer throughput are
+ * reported for each number of readers, so both reader scaling and
+ * writer interference are visible.
+ *
+ * <p> Usage: {@code SnapshotScalingBenchmark [<#bits> [<max readers>
+ * [<millis per run>]]]}.  Defaults are 256 bits, one reader per
+ * available processor and 1000 milliseconds.
+ */
+public class SnapshotScalingBenchmark {
+
+  private static volatile long sink;
+
+  private SnapshotScalingBenchmark () {}
+
+  /** Runs one measurement.
+   * @return reads and writer steps per second
+   */
+  private static long[] run (final Clock clock, final boolean locked,
+                             int readers, long millis)
+    throws InterruptedException {
+    final AtomicBoolean done = new AtomicBoolean();
+    final LongAdder reads = new LongAdder();
+    final LongAdder steps = new LongAdder();
+    final CountDownLatch go = new CountDownLatch(1);
+    Thread[] threads = new Thread[readers + 1];
+    threads[0] = new Thread(new Runnable() {
+        public void run () {
+          await(go);
+          long k = 0;
+          while (!done.get()) {
+            clock.step();
+            k++;
+          }
+          steps.add(k);
+        }
+      });
+    for (int i = 1; i <= readers; i++) {
+      threads[i] = new Thread(new Runnable() {
+          public void run () {
+            await(go);
+            long k = 0, acc = 0;
+            while (!done.get()) {
+              ClockSnapshot s;
+              if (locked) {
+                synchronized (clock.lock) {
+                  s = clock.snapshot();
+                }
+              } else {
+                s = clock.snapshot();
+              }
+              if (s.getBit(0))
+                acc++;
+              k++;
+            }
+            sink = acc;
+            reads.add(k);
+          }
+        });
+    }
+    for (Thread t : threads)
+      t.start();
+    long t0 = System.nanoTime();
+    go.countDown();
+    Thread.sleep(millis);
+    done.set(true);
+    for (Thread t : threads)
+      t.join();
+    double secs = (System.nanoTime() - t0) / 1e9;
+    return new long[] { (long)(reads.sum() / secs), (long)(steps.sum() / secs) };
+  }
+
+  private static void await (CountDownLatch l) {
+    try {
+      l.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Runs the benchmark.
+   * @param args command line parameters
+   */
+  public static void main (String[] args) throws InterruptedException {
+    int bits = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+    int max = args.length > 1 ? Integer.parseInt(args[1])
+      : Runtime.getRuntime().availableProcessors();
+    long millis = args.length > 2 ? Long.parseLong(args[2]) : 1000L;
+
+    run(new Clock(bits), true, max, millis); // warm-up
+    run(new Clock(bits), false, max, millis);
+
+    System.out.printf("%8s %18s %18s %18s %18s%n", "readers",
+                      "locked reads/s", "locked steps/s",
+                      "snapshot reads/s", "snapshot steps/s");
+    for (int r = 1; r <= max; r = (r < max && r * 2 > max) ? max : r * 2) {
+      long[] m = run(new Clock(bits), true, r, millis);
+      long[] o = run(new Clock(bits), false, r, millis);
+      System.out.printf("%8d %18d %18d %18d %18d%n", r, m[0], m[1], o[0], o[1]);
+    }
+  }
+}
@@ -0,0 +1,228 @@
+package cs671;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Tick accuracy of timer implementations.  For each timer,
+ * the harness starts a number of timers with the same delay, lets
+ * them run for a while, and records the lateness of every tick, i.e.,
+ * how long after its ideal time (start + k &times; delay) it
+ * actually ran.  Background threads can burn CPU and churn the heap
+ * to put the timers under load.
+ *
+ * <p> For each implementation, the harness reports the number of
+ * ticks, the number of missed ticks (ticks that should have happened
+ * before the end of the run but did not), and the p50, p99, p99.9 and
+ * maximum lateness in microseconds.  With {@code -csv}, results are
+ * printed as CSV lines, so runs can be compared.
+ *
+ * <p> Usage: {@code TimerAccuracyBenchmark [-timers <name>,...]
+ * [-count <#timers>] [-delay <millis>] [-duration <seconds>] [-cpu
+ * <#threads>] [-gc <MB per second>] [-csv]}, where timer names are
+ * those accepted by {@link ClockTimerRegistry#newTimer}.  By default,
+ * 100 timers of each of the registered implementations tick every 10
+ * ms for 10 seconds with no background load.
+ */
+public class TimerAccuracyBenchmark {
+
+  private static volatile long sink;
+
+  private TimerAccuracyBenchmark () {}
+
+  /** A log-linear histogram of non-negative values: 32 linear
+   * sub-buckets per power of two, i.e., about 3% precision.  Recording
+   * is lock-free.
+   */
+  static final class Histogram {
+    private static final int SUB = 5; // 2^5 sub-buckets
+    private final AtomicLongArray counts = new AtomicLongArray(64 << SUB);
+    private final AtomicLong max = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+
+    private static int index (long v) {
+      int shift = 63 - Long.numberOfLeadingZeros(v) - SUB;
+      if (shift < 0)
+        return (int)v;
+      return ((shift + 1) << SUB) + (int)((v >>> shift) - (1L << SUB));
+    }
+
+    private static long lowest (int i) {
+      int shift = (i >>> SUB) - 1;
+      if (shift < 0)
+        return i;
+      return ((long)(i & ((1 << SUB) - 1)) + (1L << SUB)) << shift;
+    }
+
+    void record (long v) {
+      if (v < 0)
+        v = 0;
+      counts.incrementAndGet(index(v));
+      total.incrementAndGet();
+      long m;
+      while (v > (m = max.get()) && !max.compareAndSet(m, v)) {}
+    }
+
+    long count () {
+      return total.get();
+    }
+
+    long max () {
+      return max.get();
+    }
+
+    /** Smallest recorded bucket value such that a fraction {@code q}
+     * of the values are at most that value.
+     */
+    long percentile (double q) {
+      long n = total.get();
+      if (n == 0)
+        return 0;
+      long rank = (long)Math.ceil(q * n), seen = 0;
+      for (int i = 0; i < counts.length(); i++) {
+        seen += counts.get(i);
+        if (seen >= rank)
+          return Math.min(lowest(i), max.get());
+      }
+      return max.get();
+    }
+  }
+
+  /** Runs one implementation.
+   * @return ticks, missed ticks, and histogram of lateness in nanoseconds
+   */
+  private static Object[] run (String timerName, int count, final long delay,
+                               long seconds) throws Exception {
+    final Histogram h = new Histogram();
+    final long period = delay * 1000000L;
+    ClockTimer[] timers = new ClockTimer[count];
+    final long[] starts = new long[count];
+    // read by this thread while the timers may still be ticking
+    final AtomicLongArray ticks = new AtomicLongArray(count);
+    for (int i = 0; i < count; i++) {
+      final int id = i;
+      timers[i] = ClockTimerRegistry.newTimer(timerName);
+      timers[i].setDelay(delay);
+      timers[i].setRunnable(new Runnable() {
+          public void run () {
+            long k = ticks.incrementAndGet(id);
+            h.record(System.nanoTime() - (starts[id] + k * period));
+          }
+        });
+    }
+    for (int i = 0; i < count; i++) {
+      starts[i] = System.nanoTime();
+      timers[i].start();
+    }
+    Thread.sleep(seconds * 1000L);
+    long end = System.nanoTime();
+    for (ClockTimer t : timers)
+      t.cancel();
+    long missed = 0;
+    for (int i = 0; i < count; i++) {
+      // a tick that is due less than one delay before the end may still be running
+      long due = (end - starts[i]) / period - 1;
+      missed += Math.max(0, due - ticks.get(i));
+    }
+    return new Object[] { h.count(), missed, h };
+  }
+
+  private static List<Thread> load (int cpu, final int mbPerSecond, final AtomicBoolean done) {
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < cpu; i++) {
+      threads.add(new Thread(new Runnable() {
+          public void run () {
+            long x = System.nanoTime();
+            while (!done.get()) {
+              for (int k = 0; k < 100000; k++)
+                x = x * 6364136223846793005L + 1442695040888963407L;
+              sink = x;
+            }
+          }
+        }, "cpu-load"));
+    }
+    if (mbPerSecond > 0) {
+      threads.add(new Thread(new Runnable() {
+          public void run () {
+            // keeps some garbage alive long enough to be promoted
+            Object[] retained = new Object[256];
+            int k = 0;
+            while (!done.get()) {
+              long t0 = System.nanoTime();
+              for (int i = 0; i < mbPerSecond * 16; i++) // 16 x 64 KiB per MB
+                retained[k++ & 255] = new byte[64 * 1024];
+              long spent = (System.nanoTime() - t0) / 1000000L;
+              try {
+                Thread.sleep(Math.max(0, 1000 - spent));
+              } catch (InterruptedException e) {
+                return;
+              }
+            }
+          }
+        }, "gc-load"));
+    }
+    for (Thread t : threads) {
+      t.setDaemon(true);
+      t.start();
+    }
+    return threads;
+  }
+
+  /** Runs the harness.
+   * @param args command line parameters
+   */
+  public static void main (String[] args) throws Exception {
+    Collection<String> timers = ClockTimerRegistry.getAvailableNames();
+    int count = 100, cpu = 0, gc = 0;
+    long delay = 10, seconds = 10;
+    boolean csv = false;
+    for (int a = 0; a < args.length; a++) {
+      String arg = args[a];
+      if (arg.equals("-csv"))
+        csv = true;
+      else if (a + 1 == args.length)
+        throw new IllegalArgumentException("missing value for " + arg);
+      else if (arg.equals("-timers"))
+        timers = Arrays.asList(args[++a].split(","));
+      else if (arg.equals("-count"))
+        count = Integer.parseInt(args[++a]);
+      else if (arg.equals("-delay"))
+        delay = Long.parseLong(args[++a]);
+      else if (arg.equals("-duration"))
+        seconds = Long.parseLong(args[++a]);
+      else if (arg.equals("-cpu"))
+        cpu = Integer.parseInt(args[++a]);
+      else if (arg.equals("-gc"))
+        gc = Integer.parseInt(args[++a]);
+      else
+        throw new IllegalArgumentException("unknown option " + arg);
+    }
+
+    AtomicBoolean done = new AtomicBoolean();
+    load(cpu, gc, done);
+    if (csv)
+      System.out.println("timer,count,delay_ms,cpu,gc_mb_s,ticks,missed,p50_us,p99_us,p999_us,max_us");
+    else
+      System.out.printf("%d timers, %d ms delay, %d s, %d cpu threads, %d MB/s garbage%n%n"
+                        + "%-32s %10s %8s %10s %10s %10s %10s%n",
+                        count, delay, seconds, cpu, gc,
+                        "timer", "ticks", "missed", "p50 us", "p99 us", "p99.9 us", "max us");
+    for (String c : timers) {
+      Object[] r = run(c.trim(), count, delay, seconds);
+      Histogram h = (Histogram)r[2];
+      if (csv)
+        System.out.printf("%s,%d,%d,%d,%d,%d,%d,%.1f,%.1f,%.1f,%.1f%n", c.trim(), count, delay, cpu, gc,
+                          r[0], r[1], h.percentile(0.5) / 1e3, h.percentile(0.99) / 1e3,
+                          h.percentile(0.999) / 1e3, h.max() / 1e3);
+      else
+        System.out.printf("%-32s %10d %8d %10.1f %10.1f %10.1f %10.1f%n", c.trim(), r[0], r[1],
+                          h.percentile(0.5) / 1e3, h.percentile(0.99) / 1e3,
+                          h.percentile(0.999) / 1e3, h.max() / 1e3);
+    }
+    done.set(true);
+  }
+}
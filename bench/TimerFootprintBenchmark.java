@@ -0,0 +1,63 @@
+package cs671;
+
+/** Memory and startup cost of timer implementations.  For each timer
+ * class, the benchmark creates and starts a number of timers (10,000
+ * by default), then reports the time it took, the heap used per
+ * timer and the number of live platform threads.  Virtual threads do
+ * not show up in the platform thread count.
+ *
+ * <p> Usage: {@code TimerFootprintBenchmark [<#timers> [<timer
+ * class>...]]}.  The default classes are {@code
+ * cs671.SimpleClockTimer} and {@code cs671.VirtualThreadClockTimer}.
+ */
+public class TimerFootprintBenchmark {
+
+  private TimerFootprintBenchmark () {}
+
+  private static long usedHeap () throws InterruptedException {
+    Runtime rt = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      Thread.sleep(100);
+    }
+    return rt.totalMemory() - rt.freeMemory();
+  }
+
+  private static void run (String timerClass, int count) throws Exception {
+    Class<? extends ClockTimer> c = Class.forName(timerClass).asSubclass(ClockTimer.class);
+    Runnable task = new Runnable() {
+        public void run () {}
+      };
+    ClockTimer[] timers = new ClockTimer[count];
+    long heap0 = usedHeap();
+    int threads0 = Thread.activeCount();
+    long t0 = System.nanoTime();
+    for (int i = 0; i < count; i++) {
+      ClockTimer t = timers[i] = c.getConstructor().newInstance();
+      t.setRunnable(task);
+      t.setDelay(60000L); // long enough that no tick happens during the measure
+      t.start();
+    }
+    long t1 = System.nanoTime();
+    int threads = Thread.activeCount() - threads0;
+    long heap = usedHeap() - heap0;
+    for (ClockTimer t : timers)
+      t.cancel();
+    System.out.printf("%-32s %10.1f %14d %10d%n", timerClass,
+                      (t1 - t0) / 1e6 * 10000 / count, heap / count, threads);
+  }
+
+  /** Runs the benchmark.
+   * @param args command line parameters
+   */
+  public static void main (String[] args) throws Exception {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    String[] classes = args.length > 1
+      ? java.util.Arrays.copyOfRange(args, 1, args.length)
+      : new String[] { "cs671.SimpleClockTimer", "cs671.VirtualThreadClockTimer" };
+    System.out.printf("virtual threads available: %b%n", VirtualThreadClockTimer.isVirtual());
+    System.out.printf("%-32s %10s %14s %10s%n", "timer", "ms/10k", "bytes/timer", "threads");
+    for (String c : classes)
+      run(c, count);
+  }
+}
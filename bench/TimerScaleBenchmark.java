@@ -0,0 +1,83 @@
+package cs671;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Scaling of timer implementations to many clocks.  For each timer,
+ * the benchmark starts a number of timers (10,000 by default) with a
+ * short delay, lets them tick for a while, stops them, and checks
+ * that no task runs once {@code stop} has returned.  It reports the
+ * time it took to start the timers, the number of ticks against the
+ * number expected, the ticks that happened after their timer was
+ * stopped, and the number of live platform threads.  Virtual threads
+ * do not show up in the platform thread count, so running it on Java
+ * 21 or later exercises {@link VirtualThreadClockTimer} on virtual
+ * threads, and on older runtimes its fallback.
+ *
+ * <p> Usage: {@code TimerScaleBenchmark [<#timers> [<delay millis>
+ * [<seconds> [<timer name>...]]]]}.  By default, 10,000 timers of each
+ * of {@code VirtualThreadClockTimer}, {@code ScheduledClockTimer},
+ * {@code WheelClockTimer} and {@code GroupClockTimer} tick every 10 ms
+ * for 2 seconds.
+ */
+public class TimerScaleBenchmark {
+
+  private TimerScaleBenchmark () {}
+
+  private static void run (String timerName, int count, long delay, long seconds)
+    throws InterruptedException {
+    final AtomicLongArray ticks = new AtomicLongArray(count);
+    ClockTimer[] timers = new ClockTimer[count];
+    for (int i = 0; i < count; i++) {
+      final int id = i;
+      timers[i] = ClockTimerRegistry.newTimer(timerName);
+      timers[i].setDelay(delay);
+      timers[i].setRunnable(new Runnable() {
+          public void run () {
+            ticks.incrementAndGet(id);
+          }
+        });
+    }
+    int threads0 = Thread.activeCount();
+    long t0 = System.nanoTime();
+    for (ClockTimer t : timers)
+      t.start();
+    long t1 = System.nanoTime();
+    int threads = Thread.activeCount() - threads0;
+    Thread.sleep(seconds * 1000L);
+    long[] atStop = new long[count];
+    long total = 0;
+    for (int i = 0; i < count; i++) {
+      timers[i].stop();
+      atStop[i] = ticks.get(i);
+      total += atStop[i];
+    }
+    // any tick still to come would be due within one delay
+    Thread.sleep(2 * delay);
+    long late = 0;
+    for (int i = 0; i < count; i++) {
+      late += ticks.get(i) - atStop[i];
+      timers[i].cancel();
+    }
+    System.out.printf("%-32s %10.1f %12d %12d %10d %10d%n", timerName, (t1 - t0) / 1e6,
+                      total, count * (seconds * 1000L / delay), late, threads);
+  }
+
+  /** Runs the benchmark.
+   * @param args command line parameters
+   */
+  public static void main (String[] args) throws InterruptedException {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    long delay = args.length > 1 ? Long.parseLong(args[1]) : 10;
+    long seconds = args.length > 2 ? Long.parseLong(args[2]) : 2;
+    String[] timers = args.length > 3
+      ? java.util.Arrays.copyOfRange(args, 3, args.length)
+      : new String[] { "cs671.VirtualThreadClockTimer", "cs671.ScheduledClockTimer",
+                       "cs671.WheelClockTimer", "cs671.GroupClockTimer" };
+    System.out.printf("%d timers, %d ms delay, %d s, virtual threads available: %b%n%n",
+                      count, delay, seconds, VirtualThreadClockTimer.isVirtual());
+    System.out.printf("%-32s %10s %12s %12s %10s %10s%n", "timer", "start ms",
+                      "ticks", "expected", "late", "threads");
+    for (String t : timers)
+      run(t, count, delay, seconds);
+  }
+}